@@ -0,0 +1,184 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 可以按负载自动调整线程数的线程池。开启后统计每个任务的执行时间和CPU时间，得到阻塞系数（等待I/O的时间占比），
+ * 按 线程数 = CPU数 / (1 - 阻塞系数) 计算目标线程数：计算密集的任务保持约N+1个线程，I/O密集的任务可以获得更多线程。
+ * 有排队且估算的排队时间超过阈值时扩容核心线程数（队列有界，只调最大线程数要等队列满了才会创建新线程），
+ * 队列为空时逐步收缩回目标值，多余的空闲线程按keepAlive回收
+ *
+ * @author peter_wang
+ * @create-time 26/10/19 11:00
+ */
+final class AdaptiveThreadPoolExecutor extends ThreadPoolExecutor {
+    /**
+     * 调整间隔
+     */
+    private static final long ADJUST_INTERVAL_MILLIS = 500;
+    /**
+     * 估算排队时间超过该值才扩容
+     */
+    private static final long MAX_QUEUE_LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    /**
+     * 阻塞系数上限，避免任务几乎全在等待时线程数趋于无穷
+     */
+    private static final double MAX_BLOCKING_RATIO = 0.9;
+
+    private final int mCpuCount;
+    private final int mDefaultCorePoolSize;
+    private final int mDefaultMaxPoolSize;
+    /**
+     * 自适应模式下允许的最大线程数
+     */
+    private final int mAdaptiveMaxPoolSize;
+
+    private volatile boolean mAdaptive;
+    private final AtomicLong mTaskCount = new AtomicLong();
+    private final AtomicLong mWallNanos = new AtomicLong();
+    private final AtomicLong mCpuNanos = new AtomicLong();
+    /**
+     * 每个工作线程当前任务的开始时间：[0]为时钟时间，[1]为CPU时间
+     */
+    private final ThreadLocal<long[]> mTaskStart = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[2];
+        }
+    };
+
+    private ScheduledExecutorService mAdjustExecutor;
+    private ScheduledFuture<?> mAdjustFuture;
+
+    AdaptiveThreadPoolExecutor(int cpuCount, int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit,
+                               BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory,
+                               RejectedExecutionHandler handler) {
+        super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, threadFactory, handler);
+        mCpuCount = cpuCount;
+        mDefaultCorePoolSize = corePoolSize;
+        mDefaultMaxPoolSize = maximumPoolSize;
+        mAdaptiveMaxPoolSize = Math.max(maximumPoolSize, (int) Math.ceil(cpuCount / (1 - MAX_BLOCKING_RATIO)));
+    }
+
+    /**
+     * 开启或关闭自适应，关闭时恢复默认线程数
+     */
+    synchronized void setAdaptive(boolean adaptive) {
+        if (mAdaptive == adaptive) {
+            return;
+        }
+        mAdaptive = adaptive;
+        if (adaptive) {
+            if (mAdjustExecutor == null) {
+                mAdjustExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "MyAsynTask-adaptive");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            mAdjustFuture = mAdjustExecutor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    adjust();
+                }
+            }, ADJUST_INTERVAL_MILLIS, ADJUST_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        } else {
+            if (mAdjustFuture != null) {
+                mAdjustFuture.cancel(false);
+                mAdjustFuture = null;
+            }
+            resize(mDefaultCorePoolSize, mDefaultMaxPoolSize);
+        }
+    }
+
+    @Override
+    protected void beforeExecute(Thread thread, Runnable runnable) {
+        super.beforeExecute(thread, runnable);
+        if (mAdaptive) {
+            long[] start = mTaskStart.get();
+            start[0] = System.nanoTime();
+            start[1] = ThreadCpuClock.currentThreadCpuNanos();
+        }
+    }
+
+    @Override
+    protected void afterExecute(Runnable runnable, Throwable throwable) {
+        super.afterExecute(runnable, throwable);
+        if (mAdaptive) {
+            long[] start = mTaskStart.get();
+            if (start[0] == 0) {
+                return;
+            }
+            long wallNanos = System.nanoTime() - start[0];
+            long cpuNanos = start[1] < 0 ? -1 : ThreadCpuClock.currentThreadCpuNanos() - start[1];
+            start[0] = 0;
+            mTaskCount.incrementAndGet();
+            mWallNanos.addAndGet(wallNanos);
+            //不支持CPU时间，或者时钟精度不够、短任务读到0时按计算密集处理，不能算作完全阻塞
+            mCpuNanos.addAndGet(cpuNanos <= 0 ? wallNanos : Math.min(cpuNanos, wallNanos));
+        }
+    }
+
+    /**
+     * 在调整线程中按上一个周期的统计结果调整核心线程数
+     */
+    private synchronized void adjust() {
+        if (!mAdaptive) {
+            return;
+        }
+        long taskCount = mTaskCount.getAndSet(0);
+        long wallNanos = mWallNanos.getAndSet(0);
+        long cpuNanos = mCpuNanos.getAndSet(0);
+        int queueSize = getQueue().size();
+        int corePoolSize = getCorePoolSize();
+
+        int targetPoolSize;
+        if (taskCount == 0 || wallNanos == 0) {
+            targetPoolSize = mDefaultCorePoolSize;
+        } else {
+            double blockingRatio = Math.min(MAX_BLOCKING_RATIO, Math.max(0, 1 - (double) cpuNanos / wallNanos));
+            targetPoolSize = (int) Math.ceil(mCpuCount / (1 - blockingRatio)) + 1;
+        }
+        targetPoolSize = Math.max(mDefaultCorePoolSize, Math.min(mAdaptiveMaxPoolSize, targetPoolSize));
+
+        int newCorePoolSize = corePoolSize;
+        if (queueSize > 0 && taskCount > 0) {
+            //利特尔法则估算排队时间：队列长度 * 平均执行时间 / 线程数
+            long queueLatencyNanos = queueSize * (wallNanos / taskCount) / Math.max(1, getPoolSize());
+            if (queueLatencyNanos > MAX_QUEUE_LATENCY_NANOS && targetPoolSize > corePoolSize) {
+                //每次最多翻倍，避免一次创建过多线程
+                newCorePoolSize = Math.min(targetPoolSize, corePoolSize * 2);
+            }
+        } else if (queueSize == 0 && corePoolSize > targetPoolSize) {
+            //每次最多减半，负载波动时不会来回大幅调整
+            newCorePoolSize = Math.max(targetPoolSize, corePoolSize / 2);
+        }
+        if (newCorePoolSize != corePoolSize) {
+            resize(newCorePoolSize, Math.max(mDefaultMaxPoolSize, newCorePoolSize));
+        }
+    }
+
+    /**
+     * 先调大的一边，保证任何时候最大线程数都不小于核心线程数
+     */
+    private void resize(int corePoolSize, int maximumPoolSize) {
+        if (corePoolSize > getCorePoolSize()) {
+            setMaximumPoolSize(maximumPoolSize);
+            setCorePoolSize(corePoolSize);
+        } else {
+            setCorePoolSize(corePoolSize);
+            setMaximumPoolSize(maximumPoolSize);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 批量提交：SerialExecutor和DispatchingExecutor一次性入队；ThreadPoolExecutor不逐个入队，
+ * 而是把整批任务放在一个数组里，只向线程池提交核心线程数个排空任务，各自通过原子下标领取下一个任务执行，
+ * 整批任务只争用线程池队列锁几次，也不会占满THREAD_BLOCKING_DEQUE触发过载策略
+ *
+ * @author peter_wang
+ * @create-time 26/10/20 17:10
+ */
+final class BatchDrain implements Runnable {
+    private final Runnable[] mRunnables;
+    private final AtomicInteger mNextIndex = new AtomicInteger();
+
+    private BatchDrain(Runnable[] runnables) {
+        mRunnables = runnables;
+    }
+
+    /**
+     * @throws RejectedExecutionException 整批任务都没有被接受
+     */
+    static void submit(Executor executor, Runnable[] runnables) {
+        if (runnables.length == 0) {
+            return;
+        }
+        if (executor instanceof SerialExecutor) {
+            ((SerialExecutor) executor).executeAll(Arrays.asList(runnables));
+        } else if (executor instanceof DispatchingExecutor) {
+            ((DispatchingExecutor) executor).executeAll(Arrays.asList(runnables));
+        } else if (executor instanceof ThreadPoolExecutor && runnables.length > 1) {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            BatchDrain drain = new BatchDrain(runnables);
+            int drainCount = Math.min(runnables.length, Math.max(1, pool.getCorePoolSize()));
+            pool.execute(drain);
+            for (int i = 1; i < drainCount; i++) {
+                try {
+                    pool.execute(drain);
+                } catch (RejectedExecutionException e) {
+                    //已经提交的排空任务会执行完整批任务，只是并发度低一些
+                    break;
+                }
+            }
+        } else {
+            //ForkJoinPool、虚拟线程等执行器本身没有共享队列锁，逐个提交
+            for (Runnable runnable : runnables) {
+                executor.execute(runnable);
+            }
+        }
+    }
+
+    /**
+     * 领取并执行任务直到整批任务都被领取。某个任务抛出异常时继续执行其余任务，最后再抛给线程池
+     */
+    @Override
+    public void run() {
+        RuntimeException failure = null;
+        int index;
+        while ((index = mNextIndex.getAndIncrement()) < mRunnables.length) {
+            Runnable runnable = mRunnables[index];
+            mRunnables[index] = null;
+            try {
+                runnable.run();
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
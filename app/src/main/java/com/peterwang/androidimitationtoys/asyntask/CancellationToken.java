@@ -0,0 +1,32 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 任务的只读取消标记，通过{@link MyAsynTask#getCancellationToken getCancellationToken}获取。
+ * cancel只能中断阻塞调用，纯计算的循环不会因此停止，需要在循环中定期检查这个标记并尽快返回
+ *
+ * @author peter_wang
+ * @create-time 26/10/20 10:00
+ */
+public final class CancellationToken {
+    private final AtomicBoolean mCancelled;
+
+    CancellationToken(AtomicBoolean cancelled) {
+        mCancelled = cancelled;
+    }
+
+    public boolean isCancelled() {
+        return mCancelled.get();
+    }
+
+    /**
+     * 已经被取消时抛出CancellationException，doInBackground不捕获时任务按取消处理
+     */
+    public void throwIfCancelled() {
+        if (mCancelled.get()) {
+            throw new CancellationException("the task is cancelled.");
+        }
+    }
+}
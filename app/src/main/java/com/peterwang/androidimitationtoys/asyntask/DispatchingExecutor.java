@@ -0,0 +1,153 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 自己维护待执行队列、共用目标线程池线程的执行器基类：最多mMaxConcurrency个调度任务提交到目标线程池，
+ * 调度任务真正开始执行时才通过{@link #poll()}决定执行哪个任务，子类只需要决定队列的出队顺序
+ *
+ * @author peter_wang
+ * @create-time 26/10/16 15:30
+ */
+abstract class DispatchingExecutor implements Executor, Runnable {
+    private final Executor mTargetExecutor;
+    private final int mMaxConcurrency;
+    /**
+     * 已经提交到目标线程池、还未执行完的调度任务个数
+     */
+    private final AtomicInteger mActiveCount = new AtomicInteger();
+
+    /**
+     * @param targetExecutor 实际执行任务的线程池
+     * @param maxConcurrency 最多同时执行的任务数
+     */
+    DispatchingExecutor(Executor targetExecutor, int maxConcurrency) {
+        mTargetExecutor = targetExecutor;
+        mMaxConcurrency = maxConcurrency;
+    }
+
+    @Override
+    public final void execute(Runnable runnable) {
+        if (runnable == null) {
+            throw new NullPointerException();
+        }
+        offer(runnable);
+        try {
+            scheduleNext();
+        } catch (RejectedExecutionException e) {
+            //调用者会收到异常，任务不能再留在队列中被之后的调度任务执行
+            remove(runnable);
+            throw e;
+        }
+    }
+
+    /**
+     * 批量提交：全部入队后再按需要提交调度任务，不再每个任务都检查一次并发上限。
+     * 只要提交成功了一个调度任务，它会执行完队列中的所有任务，之后的拒绝不影响这批任务
+     */
+    final void executeAll(List<? extends Runnable> runnables) {
+        for (Runnable runnable : runnables) {
+            if (runnable == null) {
+                throw new NullPointerException();
+            }
+            offer(runnable);
+        }
+        for (int i = 0; i < runnables.size(); i++) {
+            try {
+                if (!scheduleNext()) {
+                    break;
+                }
+            } catch (RejectedExecutionException e) {
+                if (i > 0) {
+                    break;
+                }
+                for (Runnable runnable : runnables) {
+                    remove(runnable);
+                }
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public final void run() {
+        try {
+            Runnable runnable = poll();
+            if (runnable != null) {
+                runnable.run();
+            }
+        } finally {
+            mActiveCount.decrementAndGet();
+            if (!isEmpty()) {
+                try {
+                    scheduleNext();
+                } catch (RejectedExecutionException e) {
+                    abortIfIdle();
+                }
+            }
+        }
+    }
+
+    /**
+     * 在工作线程中重新调度被拒绝：没有调用者可以接收异常，还有其他调度任务时由它们继续执行队列，
+     * 否则取消排队的任务，让提交者收到取消回调，不会留在队列中等下一次提交才执行
+     */
+    private void abortIfIdle() {
+        if (mActiveCount.get() > 0) {
+            return;
+        }
+        Runnable runnable;
+        while ((runnable = poll()) != null) {
+            if (runnable instanceof Future) {
+                ((Future<?>) runnable).cancel(false);
+            }
+        }
+    }
+
+    /**
+     * 任务入队
+     */
+    protected abstract void offer(Runnable runnable);
+
+    /**
+     * 取出下一个要执行的任务，队列为空时返回null
+     */
+    protected abstract Runnable poll();
+
+    protected abstract boolean isEmpty();
+
+    /**
+     * 撤回还在排队的任务
+     *
+     * @return 任务是否还在队列中
+     */
+    protected abstract boolean remove(Runnable runnable);
+
+    /**
+     * 调度任务未达到上限时再提交一个调度任务到目标线程池
+     *
+     * @return 是否提交了调度任务
+     */
+    private boolean scheduleNext() {
+        while (true) {
+            int active = mActiveCount.get();
+            if (active >= mMaxConcurrency) {
+                return false;
+            }
+            if (mActiveCount.compareAndSet(active, active + 1)) {
+                break;
+            }
+        }
+        try {
+            mTargetExecutor.execute(this);
+        } catch (RejectedExecutionException e) {
+            mActiveCount.decrementAndGet();
+            throw e;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,276 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 执行器运行指标：排队任务数、正在执行的任务数、排队耗时和执行耗时分布、被拒绝和已完成的任务数。
+ * 通过MyAsynTask提交的任务按所用执行器分别统计，默认关闭，调用{@link #setEnabled setEnabled}开启后，
+ * 每个任务只多两次System.nanoTime和几次原子自增，不分配对象。
+ * 可以随时调用{@link #snapshot snapshot}/{@link #snapshotAll snapshotAll}拉取，也可以注册定时回调
+ *
+ * @author peter_wang
+ * @create-time 26/10/17 16:40
+ */
+public final class ExecutorMetrics {
+    private static volatile boolean sEnabled;
+    private static final Map<Object, ExecutorMetrics> sRegistry = new WeakHashMap<>();
+    /**
+     * 最近一次查找的结果，大多数时间只使用同一个执行器，避免每个任务都要加锁查找
+     */
+    private static volatile ExecutorMetrics sLastMetrics;
+
+    private static ScheduledExecutorService sReportExecutor;
+    private static ScheduledFuture<?> sReportFuture;
+
+    private final String mName;
+    private final WeakReference<Object> mExecutor;
+    private final AtomicLong mSubmittedCount = new AtomicLong();
+    private final AtomicLong mStartedCount = new AtomicLong();
+    private final AtomicLong mCompletedCount = new AtomicLong();
+    /**
+     * 还未开始执行就被取消并移出队列的任务数
+     */
+    private final AtomicLong mDroppedCount = new AtomicLong();
+    private final AtomicLong mRejectedCount = new AtomicLong();
+    private final LatencyHistogram mWaitTime = new LatencyHistogram();
+    private final LatencyHistogram mRunTime = new LatencyHistogram();
+
+    /**
+     * 定时回调
+     */
+    public interface OnMetricsListener {
+        /**
+         * 在统计线程中回调
+         *
+         * @param snapshots 所有执行器的快照
+         */
+        void onMetrics(List<Snapshot> snapshots);
+    }
+
+    private ExecutorMetrics(Object executor) {
+        mName = executor.getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(executor));
+        mExecutor = new WeakReference<>(executor);
+    }
+
+    /**
+     * 开启或关闭统计，只影响之后提交的任务
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * @param executor 执行器
+     * @return 该执行器的统计对象，第一次调用时创建
+     */
+    public static ExecutorMetrics of(Object executor) {
+        ExecutorMetrics metrics = sLastMetrics;
+        if (metrics != null && metrics.mExecutor.get() == executor) {
+            return metrics;
+        }
+        synchronized (sRegistry) {
+            metrics = sRegistry.get(executor);
+            if (metrics == null) {
+                metrics = new ExecutorMetrics(executor);
+                sRegistry.put(executor, metrics);
+            }
+        }
+        sLastMetrics = metrics;
+        return metrics;
+    }
+
+    /**
+     * @return 所有执行器当前的快照
+     */
+    public static List<Snapshot> snapshotAll() {
+        List<ExecutorMetrics> metricsList;
+        synchronized (sRegistry) {
+            metricsList = new ArrayList<>(sRegistry.values());
+        }
+        List<Snapshot> snapshots = new ArrayList<>(metricsList.size());
+        for (ExecutorMetrics metrics : metricsList) {
+            snapshots.add(metrics.snapshot());
+        }
+        return Collections.unmodifiableList(snapshots);
+    }
+
+    /**
+     * 注册定时回调，同时只有一个回调生效
+     *
+     * @param listener 回调，null表示取消
+     * @param period   回调间隔
+     * @param unit     时间单位
+     */
+    public static synchronized void setOnMetricsListener(final OnMetricsListener listener, long period,
+                                                         TimeUnit unit) {
+        if (sReportFuture != null) {
+            sReportFuture.cancel(false);
+            sReportFuture = null;
+        }
+        if (listener == null) {
+            return;
+        }
+        if (sReportExecutor == null) {
+            sReportExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "MyAsynTask-metrics");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        sReportFuture = sReportExecutor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                listener.onMetrics(snapshotAll());
+            }
+        }, period, period, unit);
+    }
+
+    void onSubmit() {
+        mSubmittedCount.incrementAndGet();
+    }
+
+    void onReject() {
+        mRejectedCount.incrementAndGet();
+    }
+
+    /**
+     * @param waitNanos 从提交到开始执行的耗时
+     */
+    void onStart(long waitNanos) {
+        mStartedCount.incrementAndGet();
+        mWaitTime.record(waitNanos);
+    }
+
+    /**
+     * @param runNanos 执行耗时
+     */
+    void onComplete(long runNanos) {
+        mCompletedCount.incrementAndGet();
+        mRunTime.record(runNanos);
+    }
+
+    void onDrop() {
+        mDroppedCount.incrementAndGet();
+    }
+
+    public Snapshot snapshot() {
+        long completed = mCompletedCount.get();
+        long started = mStartedCount.get();
+        long submitted = mSubmittedCount.get();
+        return new Snapshot(mName,
+                Math.max(0, submitted - mRejectedCount.get() - started - mDroppedCount.get()),
+                Math.max(0, started - completed), submitted, completed, mDroppedCount.get(), mRejectedCount.get(),
+                mWaitTime.snapshot(), mRunTime.snapshot());
+    }
+
+    /**
+     * 某一时刻的统计数据
+     */
+    public static final class Snapshot {
+        private final String mName;
+        private final long mQueueDepth;
+        private final long mActiveCount;
+        private final long mSubmittedCount;
+        private final long mCompletedCount;
+        private final long mDroppedCount;
+        private final long mRejectedCount;
+        private final LatencyHistogram.Snapshot mWaitTime;
+        private final LatencyHistogram.Snapshot mRunTime;
+
+        private Snapshot(String name, long queueDepth, long activeCount, long submittedCount, long completedCount,
+                         long droppedCount, long rejectedCount, LatencyHistogram.Snapshot waitTime,
+                         LatencyHistogram.Snapshot runTime) {
+            mName = name;
+            mQueueDepth = queueDepth;
+            mActiveCount = activeCount;
+            mSubmittedCount = submittedCount;
+            mCompletedCount = completedCount;
+            mDroppedCount = droppedCount;
+            mRejectedCount = rejectedCount;
+            mWaitTime = waitTime;
+            mRunTime = runTime;
+        }
+
+        /**
+         * @return 执行器名称：类名@identityHashCode
+         */
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * @return 已提交还未开始执行的任务数
+         */
+        public long getQueueDepth() {
+            return mQueueDepth;
+        }
+
+        /**
+         * @return 正在执行的任务数，即正在执行该执行器任务的线程数
+         */
+        public long getActiveCount() {
+            return mActiveCount;
+        }
+
+        public long getSubmittedCount() {
+            return mSubmittedCount;
+        }
+
+        public long getCompletedCount() {
+            return mCompletedCount;
+        }
+
+        /**
+         * @return 排队时被取消、没有执行就移出队列的任务数
+         */
+        public long getDroppedCount() {
+            return mDroppedCount;
+        }
+
+        /**
+         * @return 提交时抛出RejectedExecutionException的任务数
+         */
+        public long getRejectedCount() {
+            return mRejectedCount;
+        }
+
+        /**
+         * @return 从提交到开始执行的耗时分布
+         */
+        public LatencyHistogram.Snapshot getWaitTime() {
+            return mWaitTime;
+        }
+
+        /**
+         * @return doInBackground执行耗时分布
+         */
+        public LatencyHistogram.Snapshot getRunTime() {
+            return mRunTime;
+        }
+
+        @Override
+        public String toString() {
+            return mName + "{queueDepth=" + mQueueDepth + ", active=" + mActiveCount + ", submitted="
+                    + mSubmittedCount + ", completed=" + mCompletedCount + ", dropped=" + mDroppedCount
+                    + ", rejected=" + mRejectedCount + ", wait[" + mWaitTime + "], run[" + mRunTime + "]}";
+        }
+    }
+}
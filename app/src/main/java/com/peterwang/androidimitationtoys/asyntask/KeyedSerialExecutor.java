@@ -0,0 +1,161 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 按key分组的单一线程池：相同key的任务按加入顺序逐个执行，不同key的任务在同一个线程池中并发执行。
+ * 每个key只在有待执行任务时才占用一个队列，队列执行完毕后从map中移除，不会随着key的增多而泄露
+ *
+ * @author peter_wang
+ * @create-time 26/10/16 10:20
+ */
+final class KeyedSerialExecutor {
+    /**
+     * 实际执行任务的线程池
+     */
+    private final Executor mTargetExecutor;
+    private final ConcurrentMap<Object, KeyQueue> mKeyQueues = new ConcurrentHashMap<>();
+
+    KeyedSerialExecutor(Executor targetExecutor) {
+        mTargetExecutor = targetExecutor;
+    }
+
+    void execute(Object key, Runnable runnable) {
+        if (key == null || runnable == null) {
+            throw new NullPointerException();
+        }
+        while (true) {
+            KeyQueue keyQueue = mKeyQueues.get(key);
+            if (keyQueue == null) {
+                keyQueue = new KeyQueue(key);
+                KeyQueue oldQueue = mKeyQueues.putIfAbsent(key, keyQueue);
+                if (oldQueue != null) {
+                    keyQueue = oldQueue;
+                }
+            }
+            boolean start;
+            synchronized (keyQueue) {
+                //队列刚执行完并从map中移除，重新获取新的队列
+                if (keyQueue.mRemoved) {
+                    continue;
+                }
+                keyQueue.mRunnableDeque.offer(runnable);
+                start = !keyQueue.mRunning;
+                keyQueue.mRunning = true;
+            }
+            if (start) {
+                try {
+                    mTargetExecutor.execute(keyQueue);
+                } catch (RejectedExecutionException e) {
+                    cancelAll(keyQueue.abort(runnable));
+                    throw e;
+                }
+            }
+            return;
+        }
+    }
+
+    /**
+     * 撤回还在排队的任务，队列因此变空时由正在执行的调度任务负责移除队列
+     *
+     * @return 任务是否还在队列中
+     */
+    boolean remove(Object key, Runnable runnable) {
+        KeyQueue keyQueue = mKeyQueues.get(key);
+        if (keyQueue == null) {
+            return false;
+        }
+        synchronized (keyQueue) {
+            return keyQueue.mRunnableDeque.removeFirstOccurrence(runnable);
+        }
+    }
+
+    /**
+     * 在锁外取消撤回的任务，取消回调可能再次提交任务
+     */
+    private static void cancelAll(List<Runnable> runnables) {
+        for (Runnable runnable : runnables) {
+            if (runnable instanceof Future) {
+                ((Future<?>) runnable).cancel(false);
+            }
+        }
+    }
+
+    /**
+     * 单个key的任务队列，同一时刻最多只有一个任务在线程池中执行，执行完再把自身提交到线程池执行下一个
+     */
+    private final class KeyQueue implements Runnable {
+        private final Object mKey;
+        private final Deque<Runnable> mRunnableDeque = new ArrayDeque<>();
+        private boolean mRunning;
+        private boolean mRemoved;
+
+        KeyQueue(Object key) {
+            mKey = key;
+        }
+
+        @Override
+        public void run() {
+            Runnable runnable;
+            synchronized (this) {
+                runnable = mRunnableDeque.poll();
+            }
+            try {
+                if (runnable != null) {
+                    runnable.run();
+                }
+            } finally {
+                scheduleNext();
+            }
+        }
+
+        /**
+         * 线程池拒绝执行时撤回刚加入的任务。其他线程在mRunning为true期间加入的任务已经返回给了调用者，
+         * 没有调度任务会再执行它们，同样撤回并交给调用者取消
+         *
+         * @return 其他线程加入的、需要取消的任务
+         */
+        private synchronized List<Runnable> abort(Runnable runnable) {
+            mRunnableDeque.removeLastOccurrence(runnable);
+            return abortAll();
+        }
+
+        private void scheduleNext() {
+            synchronized (this) {
+                if (mRunnableDeque.isEmpty()) {
+                    mRunning = false;
+                    mRemoved = true;
+                    mKeyQueues.remove(mKey, this);
+                    return;
+                }
+            }
+            try {
+                mTargetExecutor.execute(this);
+            } catch (RejectedExecutionException e) {
+                //在工作线程中没有调用者可以接收异常：取消排队的任务，让它们的提交者收到取消回调，
+                //之后提交的相同key的任务使用新的队列，不会因为mRunning一直为true而永远不执行
+                cancelAll(abortAll());
+            }
+        }
+
+        /**
+         * 线程池拒绝执行下一个任务时撤回所有排队的任务，并移除队列
+         */
+        private synchronized List<Runnable> abortAll() {
+            List<Runnable> runnables = new ArrayList<>(mRunnableDeque);
+            mRunnableDeque.clear();
+            mRunning = false;
+            mRemoved = true;
+            mKeyQueues.remove(mKey, this);
+            return runnables;
+        }
+    }
+}
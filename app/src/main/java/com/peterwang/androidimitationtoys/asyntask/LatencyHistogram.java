@@ -0,0 +1,135 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 记录耗时分布的直方图，参考HdrHistogram的对数-线性分桶：每个2的幂区间再等分为8个子桶，相对误差不超过12.5%。
+ * 桶数组在创建时一次分配，{@link #record record}只做原子自增，不分配任何对象，可以在任务执行路径上调用
+ *
+ * @author peter_wang
+ * @create-time 26/10/17 16:10
+ */
+public final class LatencyHistogram {
+    /**
+     * 每个2的幂区间的子桶位数
+     */
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mTotalCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * 记录一次耗时
+     *
+     * @param nanos 耗时，单位纳秒，负数按0处理
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        mCounts.incrementAndGet(bucketIndex(value));
+        mTotalCount.incrementAndGet();
+        mSum.addAndGet(value);
+        long max;
+        while (value > (max = mMax.get())) {
+            if (mMax.compareAndSet(max, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return 当前数据的快照，之后的记录不会影响快照
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = mCounts.get(i);
+        }
+        return new Snapshot(counts, mTotalCount.get(), mSum.get(), mMax.get());
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) & (SUB_BUCKET_COUNT - 1));
+    }
+
+    /**
+     * @return 桶中可能出现的最大值
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long lowerBound = (long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+
+    /**
+     * 直方图快照
+     */
+    public static final class Snapshot {
+        private final long[] mCounts;
+        private final long mTotalCount;
+        private final long mSum;
+        private final long mMax;
+
+        private Snapshot(long[] counts, long totalCount, long sum, long max) {
+            mCounts = counts;
+            mTotalCount = totalCount;
+            mSum = sum;
+            mMax = max;
+        }
+
+        public long getCount() {
+            return mTotalCount;
+        }
+
+        /**
+         * @return 最大耗时，单位纳秒
+         */
+        public long getMax() {
+            return mMax;
+        }
+
+        /**
+         * @return 平均耗时，单位纳秒
+         */
+        public double getMean() {
+            return mTotalCount == 0 ? 0 : (double) mSum / mTotalCount;
+        }
+
+        /**
+         * @param percentile 百分位，0到100
+         * @return 该百分位的耗时上界，单位纳秒
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (mTotalCount == 0) {
+                return 0;
+            }
+            long countAtPercentile = Math.max(1, (long) Math.ceil(percentile / 100 * mTotalCount));
+            long count = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                count += mCounts[i];
+                if (count >= countAtPercentile) {
+                    return Math.min(bucketUpperBound(i), mMax);
+                }
+            }
+            return mMax;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + mTotalCount + ", mean=" + (long) getMean() + "ns, p50=" + getValueAtPercentile(50)
+                    + "ns, p99=" + getValueAtPercentile(99) + "ns, max=" + mMax + "ns";
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+
+/**
+ * 后进先出的线程池：新任务放在队头并优先执行，适合列表滑动加载这种最新请求最重要的场景。
+ * 设置了最大深度时，排队任务超过上限会从队尾取消最早加入的任务，快速滑动时不再执行已经滑出屏幕的请求
+ *
+ * @author peter_wang
+ * @create-time 26/10/16 15:30
+ */
+final class LifoExecutor extends DispatchingExecutor {
+    private final BlockingDeque<Runnable> mRunnableDeque = new LinkedBlockingDeque<>();
+    /**
+     * 排队任务上限，小于等于0表示不限制
+     */
+    private final int mMaxDepth;
+
+    /**
+     * @param targetExecutor 实际执行任务的线程池
+     * @param maxConcurrency 最多同时执行的任务数
+     * @param maxDepth       排队任务上限，小于等于0表示不限制
+     */
+    LifoExecutor(Executor targetExecutor, int maxConcurrency, int maxDepth) {
+        super(targetExecutor, maxConcurrency);
+        mMaxDepth = maxDepth;
+    }
+
+    @Override
+    protected void offer(Runnable runnable) {
+        mRunnableDeque.offerFirst(runnable);
+        if (mMaxDepth > 0) {
+            while (mRunnableDeque.size() > mMaxDepth) {
+                Runnable oldest = mRunnableDeque.pollLast();
+                if (oldest == null) {
+                    break;
+                }
+                //MyAsynTask提交的是FutureTask，取消后不会再回调onPostExecute
+                if (oldest instanceof Future) {
+                    ((Future<?>) oldest).cancel(false);
+                }
+            }
+        }
+    }
+
+    @Override
+    protected Runnable poll() {
+        return mRunnableDeque.pollFirst();
+    }
+
+    @Override
+    protected boolean isEmpty() {
+        return mRunnableDeque.isEmpty();
+    }
+
+    @Override
+    protected boolean remove(Runnable runnable) {
+        return mRunnableDeque.removeFirstOccurrence(runnable);
+    }
+}
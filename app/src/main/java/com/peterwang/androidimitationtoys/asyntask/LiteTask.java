@@ -0,0 +1,62 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+/**
+ * 轻量级任务：与MyAsynTask共用THREAD_POOL_EXECUTOR，但不经过FutureTask（状态CAS、等待线程栈、异常包装），
+ * 执行完直接在工作线程回调结果，不切换到主线程。任务本身没有执行状态，同一个实例可以反复execute，
+ * 适合执行开销比FutureTask机制本身还小的微任务，复用实例时每次执行不产生额外对象。
+ * 需要主线程回调、取消或获取执行状态时仍然使用MyAsynTask
+ *
+ * @author peter_wang
+ * @create-time 26/10/17 11:20
+ */
+public abstract class LiteTask<Result> implements Runnable {
+
+    /**
+     * 结果回调，在执行任务的工作线程中调用
+     */
+    public interface OnResultListener<Result> {
+        void onResult(Result result);
+    }
+
+    private final OnResultListener<? super Result> mListener;
+
+    /**
+     * 不需要结果的任务
+     */
+    protected LiteTask() {
+        this(null);
+    }
+
+    /**
+     * @param listener 结果回调，可以为null
+     */
+    protected LiteTask(OnResultListener<? super Result> listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 提交到THREAD_POOL_EXECUTOR执行，不受{@link MyAsynTask#setDefaultExecutor MyAsynTask.setDefaultExecutor}影响。
+     * doInBackground抛出的异常交给工作线程的UncaughtExceptionHandler处理
+     */
+    public final void execute() {
+        MyAsynTask.getThreadPoolExecutor().execute(this);
+    }
+
+    /**
+     * 在线程池中执行，外部不要直接调用
+     */
+    @Override
+    public final void run() {
+        Result result = doInBackground();
+        if (mListener != null) {
+            mListener.onResult(result);
+        }
+    }
+
+    /**
+     * 线程执行
+     *
+     * @return 线程完的返回值
+     */
+    protected abstract Result doInBackground();
+}
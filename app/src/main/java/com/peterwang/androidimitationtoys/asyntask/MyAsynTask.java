@@ -1,20 +1,38 @@
 package com.peterwang.androidimitationtoys.asyntask;
 
+import android.annotation.TargetApi;
+import android.os.Build;
 import android.util.Log;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingDeque;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 仿造 AsyTask
@@ -45,22 +63,142 @@ public abstract class MyAsynTask<Params, Result> {
         }
     };
 
-    private static final Executor THREAD_POOL_EXECUTOR = new ThreadPoolExecutor(CORE_POOL_SIZE, MAX_POOL_SIZE,
-            KEEP_ALIVE_TIME, TimeUnit.SECONDS, THREAD_BLOCKING_DEQUE, mThreadFactory);
+    /**
+     * 队列和线程数都满时的过载策略默认与ThreadPoolExecutor相同，抛出RejectedExecutionException，
+     * 可以通过{@link #setOverflowPolicy setOverflowPolicy}修改
+     */
+    private static final AdaptiveThreadPoolExecutor THREAD_POOL_EXECUTOR = new AdaptiveThreadPoolExecutor(CPU_NUM,
+            CORE_POOL_SIZE, MAX_POOL_SIZE, KEEP_ALIVE_TIME, TimeUnit.SECONDS, THREAD_BLOCKING_DEQUE, mThreadFactory,
+            OverflowPolicy.abortPolicy());
+
+    /**
+     * 按key分组的单一线程池，相同key顺序执行，不同key在THREAD_POOL_EXECUTOR中并发执行
+     */
+    private static final KeyedSerialExecutor KEYED_SERIAL_EXECUTOR = new KeyedSerialExecutor(THREAD_POOL_EXECUTOR);
+
+    /**
+     * 工作窃取线程池，延迟到第一次调用{@link #useWorkStealingExecutor useWorkStealingExecutor}时才创建
+     */
+    private static final class WorkStealingExecutorHolder {
+        private static final Executor WORK_STEALING_EXECUTOR = createWorkStealingExecutor();
+
+        private static Executor createWorkStealingExecutor() {
+            //ForkJoinPool在5.0(API 21)才加入sdk，低版本回退到普通的多线程并发线程池；
+            //直接检查类是否存在而不是判断Build.VERSION，在JVM上复用本包时同样可用
+            try {
+                Class.forName("java.util.concurrent.ForkJoinPool");
+            } catch (ClassNotFoundException e) {
+                return THREAD_POOL_EXECUTOR;
+            }
+            return newForkJoinPool();
+        }
+
+        @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+        private static Executor newForkJoinPool() {
+            ForkJoinPool.ForkJoinWorkerThreadFactory factory = new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                private AtomicInteger mThreadIndex = new AtomicInteger(1);
+
+                @Override
+                public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                    ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool) {
+                    };
+                    thread.setName("MyAsynTask-ws #" + mThreadIndex.getAndIncrement());
+                    return thread;
+                }
+            };
+            //asyncMode为true时每个工作线程的本地队列按先进先出执行，更适合execute提交的互不依赖的任务
+            return new ForkJoinPool(CPU_NUM, factory, null, true);
+        }
+    }
+
+    /**
+     * 虚拟线程执行器，延迟到第一次调用{@link #useVirtualThreadExecutor useVirtualThreadExecutor}时才创建。
+     * 虚拟线程在JDK 21才加入，Android和低版本JVM上没有，只能通过反射创建，不支持时回退到THREAD_POOL_EXECUTOR
+     */
+    private static final class VirtualThreadExecutorHolder {
+        private static final Executor VIRTUAL_THREAD_EXECUTOR = createVirtualThreadExecutor();
+
+        private static Executor createVirtualThreadExecutor() {
+            try {
+                //等价于Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("MyAsynTask-vt #", 1).factory())
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                builder = builderClass.getMethod("name", String.class, long.class)
+                        .invoke(builder, "MyAsynTask-vt #", 1L);
+                ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+                return (Executor) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                        .invoke(null, factory);
+            } catch (Exception e) {
+                //在不带android.jar的JVM上也会走到这里，不能调用Log等android类
+                return THREAD_POOL_EXECUTOR;
+            }
+        }
+    }
+
+    /**
+     * 按优先级调度的线程池，延迟到第一次调用{@link #usePriorityExecutor usePriorityExecutor}时才创建
+     */
+    private static final class PriorityExecutorHolder {
+        /**
+         * 老化间隔，低一级的任务最多比高一级的任务多等待这么久
+         */
+        private static final long AGING_MILLIS = 200;
+        private static final Executor PRIORITY_EXECUTOR = new PriorityExecutor(THREAD_POOL_EXECUTOR, CORE_POOL_SIZE,
+                AGING_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * I/O线程池，延迟到第一个{@link TaskType#IO IO}类型的任务执行时才创建。
+     * I/O任务大部分时间在等待，线程数可以远多于CPU核数；核心线程允许超时回收，没有I/O任务时不占用线程
+     */
+    private static final class IoExecutorHolder {
+        private static final int IO_POOL_SIZE = Math.max(8, 4 * CPU_NUM);
+        private static final int IO_KEEP_ALIVE_TIME = 30;
+        private static final ThreadPoolExecutor IO_EXECUTOR = createIoExecutor();
+
+        private static ThreadPoolExecutor createIoExecutor() {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(IO_POOL_SIZE, IO_POOL_SIZE, IO_KEEP_ALIVE_TIME,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private AtomicInteger mThreadIndex = new AtomicInteger(1);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    return new Thread(r, "MyAsynTask-io #" + mThreadIndex.getAndIncrement());
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+    }
 
     /**
      * 线程执行线程池，默认位单一线程池，允许外部通过{@link #setDefaultExecutor
-     * setDefaultExecutor}或{@link #useThreadPoolExecutor useThreadPoolExecutor}修改，
+     * setDefaultExecutor}、{@link #useThreadPoolExecutor useThreadPoolExecutor}或
+     * {@link #useWorkStealingExecutor useWorkStealingExecutor}修改，
      * 设置为volatile防止多线程并发执行修改
      */
-    private volatile static Executor mActualExecutor = new SerialExecutor();
+    private volatile static Executor mActualExecutor = new SerialExecutor(THREAD_POOL_EXECUTOR);
+    /**
+     * 正在执行的可合并任务，key为[任务类, {@link #getCoalescingKey getCoalescingKey}的返回值]
+     */
+    private static final ConcurrentMap<Object, MyAsynTask<?, ?>> IN_FLIGHT_TASKS = new ConcurrentHashMap<>();
     /**
      * 线程执行状态，初始化是未执行状态，设置为volatile防止多线程并发执行execute，保证线程状态mCurrentStatus的可见性
      */
     private volatile Status mCurrentStatus = Status.PENDING;
 
     private final TaskCallable mTaskCallable;
-    private final FutureTask<Result> mFutureTask;
+    private final TaskFutureTask mFutureTask;
+
+    /**
+     * 任务优先级，只在{@link #usePriorityExecutor usePriorityExecutor}模式下生效
+     */
+    private volatile Priority mPriority = Priority.BACKGROUND;
+
+    /**
+     * 任务类型，决定execute使用计算线程池还是I/O线程池
+     */
+    private volatile TaskType mTaskType = TaskType.DEFAULT;
 
     /**
      * 线程是否取消
@@ -70,38 +208,80 @@ public abstract class MyAsynTask<Params, Result> {
     private final AtomicBoolean isCancelled = new AtomicBoolean();
 
     /**
-     * 单一线程池，只能同时执行一个线程，顺序执行加入的线程
+     * doInBackground的返回值，经过ResultDispatcher的队列交给主线程，队列本身保证了可见性
      */
-    private static final class SerialExecutor implements Executor {
+    private Result mResult;
 
-        private Deque<Runnable> mRunnableDeque = new ArrayDeque<>();
-        private Runnable mToExecuteRunnable;
+    /**
+     * 开启{@link ExecutorMetrics}时记录提交时间和所用执行器的统计对象，未开启时为null
+     */
+    private volatile ExecutorMetrics mMetrics;
+    private long mSubmitNanos;
 
-        @Override
-        public synchronized void execute(final Runnable runnable) {
-            //先把线程放入队列，先进先出，单向执行，执行完一个再调用executeNext执行下一个
-            mRunnableDeque.offer(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        runnable.run();
-                    } finally {
-                        executeNext();
-                    }
-                }
-            });
+    /**
+     * 生命周期追踪，默认不追踪
+     */
+    private static volatile TaskTracer sTracer = TaskTracer.NONE;
+    private static final AtomicLong sTraceId = new AtomicLong();
+    /**
+     * execute时确定本次执行使用的追踪器，保证同一次执行的所有事件记录到同一个追踪器
+     */
+    private volatile TaskTracer mTracer = TaskTracer.NONE;
+    private long mTraceId;
 
-            //未执行任何线程，开始执行第一个线程
-            if (mToExecuteRunnable == null) {
-                executeNext();
-            }
-        }
+    /**
+     * 慢任务检测，默认不检测
+     */
+    private static volatile TaskWatchdog sWatchdog;
+    private volatile TaskWatchdog.Ticket mWatchdogTicket;
 
-        private void executeNext() {
-            if ((mToExecuteRunnable = mRunnableDeque.poll()) != null) {
-                THREAD_POOL_EXECUTOR.execute(mToExecuteRunnable);
-            }
-        }
+    /**
+     * 任务结束时的内部回调，加锁对象为mFutureTask，任务结束后置为null
+     */
+    private List<CompletionListener<? super Result>> mCompletionListeners;
+    private boolean mCompleted;
+    private Throwable mCompleteError;
+    private boolean mCompleteCancelled;
+    /**
+     * 任务本身对应的阶段，第一次调用asStage时创建，加锁对象为mFutureTask
+     */
+    private TaskStage<Result> mStage;
+
+    /**
+     * 任务提交到的执行器和key，排队时被取消可以立即从队列中撤回
+     */
+    private volatile Executor mQueueExecutor;
+    private volatile Object mQueueKey;
+    private volatile CancellationToken mCancellationToken;
+    /**
+     * 作为合并执行的第一个任务时在IN_FLIGHT_TASKS中的key
+     */
+    private volatile Object mInFlightKey;
+    /**
+     * 命中结果缓存，在execute的线程中直接回调，只在该线程中读写
+     */
+    private boolean mDeliverInline;
+    /**
+     * 绑定的进度通道，任务结束时在结果回调之前清空
+     */
+    private volatile ProgressChannel<?> mProgressChannel;
+
+    private static final int QUEUE_WAITING = 0;
+    private static final int QUEUE_STARTED = 1;
+    private static final int QUEUE_DROPPED = 2;
+    /**
+     * 任务离开队列的方式（开始执行或排队时被取消）只能有一种，决定统计口径以及是否需要从队列中撤回
+     */
+    private static final AtomicIntegerFieldUpdater<MyAsynTask<?, ?>.TaskFutureTask> QUEUE_STATE_UPDATER =
+            newQueueStateUpdater();
+
+    /**
+     * TaskFutureTask是泛型类的内部类，类字面量只能是原始类型，在这里一次性转换为参数化类型
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static AtomicIntegerFieldUpdater<MyAsynTask<?, ?>.TaskFutureTask> newQueueStateUpdater() {
+        return (AtomicIntegerFieldUpdater) AtomicIntegerFieldUpdater.newUpdater(MyAsynTask.TaskFutureTask.class,
+                "mQueueState");
     }
 
     /**
@@ -113,6 +293,59 @@ public abstract class MyAsynTask<Params, Result> {
         FINISHED
     }
 
+    /**
+     * 任务结束时的内部回调，在结束任务的线程中调用：执行完为工作线程，排队时被取消为调用cancel的线程。
+     * 供{@link TaskGroup}等组合多个任务的工具使用，不经过主线程
+     */
+    interface CompletionListener<Result> {
+        /**
+         * @param result    doInBackground的返回值，失败或取消时为null
+         * @param error     doInBackground抛出的异常，成功或取消时为null
+         * @param cancelled 是否被取消
+         */
+        void onComplete(Result result, Throwable error, boolean cancelled);
+    }
+
+    /**
+     * 任务类型
+     */
+    public enum TaskType {
+        /**
+         * 未声明类型，使用默认线程池，见{@link #setDefaultExecutor setDefaultExecutor}
+         */
+        DEFAULT,
+        /**
+         * 计算密集型任务，在线程数与CPU核数相当的THREAD_POOL_EXECUTOR中执行
+         */
+        CPU,
+        /**
+         * 网络、磁盘等阻塞I/O任务，在线程数更多、空闲时自动回收线程的I/O线程池中执行，不占用计算线程
+         */
+        IO
+    }
+
+    /**
+     * 任务优先级，从高到低排列
+     */
+    public enum Priority {
+        /**
+         * 需要立即执行的任务
+         */
+        IMMEDIATE,
+        /**
+         * 用户正在等待结果的任务，比如界面上可见内容的加载
+         */
+        USER_VISIBLE,
+        /**
+         * 普通后台任务，默认优先级
+         */
+        BACKGROUND,
+        /**
+         * 预加载任务，结果不一定会被用到
+         */
+        PREFETCH
+    }
+
     public MyAsynTask() {
         mTaskCallable = new TaskCallable<Params, Result>() {
             @Override
@@ -121,19 +354,7 @@ public abstract class MyAsynTask<Params, Result> {
             }
         };
 
-        mFutureTask = new FutureTask<Result>(mTaskCallable) {
-            @Override
-            protected void done() {
-                try {
-                    finish(get());
-                } catch (InterruptedException e) {
-                    Log.w(TAG, "the task is interrupted.");
-                } catch (ExecutionException e) {
-                    throw new RuntimeException("An error occured while executing doInBackground()",
-                            e.getCause());
-                }
-            }
-        };
+        mFutureTask = new TaskFutureTask(mTaskCallable);
     }
 
     /**
@@ -154,23 +375,626 @@ public abstract class MyAsynTask<Params, Result> {
         mActualExecutor = THREAD_POOL_EXECUTOR;
     }
 
+    /**
+     * 使用工作窃取线程池（ForkJoinPool）并发执行。THREAD_POOL_EXECUTOR所有提交线程共用一个BlockingDeque，
+     * 都要争用同一把锁；工作窃取线程池每个工作线程持有自己的双端队列，空闲线程从其他线程的队列窃取任务，
+     * 大量短小的doInBackground集中提交时能分散到多个核心上，而不是在队列锁上排队。
+     * 低于5.0的系统没有ForkJoinPool，此时等同于{@link #useThreadPoolExecutor useThreadPoolExecutor}
+     */
+    public static void useWorkStealingExecutor() {
+        mActualExecutor = WorkStealingExecutorHolder.WORK_STEALING_EXECUTOR;
+    }
+
+    /**
+     * 每个任务在一个新的虚拟线程中执行。虚拟线程阻塞时不占用平台线程，大量并发的阻塞任务（网络、磁盘、锁等待）
+     * 不再受MAX_POOL_SIZE限制，也不需要同样多的平台线程；计算密集的任务没有收益。
+     * 只有在JDK 21及以上的JVM中复用本包时可用，Android和低版本JVM上等同于{@link #useThreadPoolExecutor useThreadPoolExecutor}，
+     * 可以通过{@link #isVirtualThreadExecutorAvailable isVirtualThreadExecutorAvailable}判断
+     */
+    public static void useVirtualThreadExecutor() {
+        mActualExecutor = VirtualThreadExecutorHolder.VIRTUAL_THREAD_EXECUTOR;
+    }
+
+    /**
+     * @return 当前运行环境是否支持虚拟线程
+     */
+    public static boolean isVirtualThreadExecutorAvailable() {
+        return VirtualThreadExecutorHolder.VIRTUAL_THREAD_EXECUTOR != THREAD_POOL_EXECUTOR;
+    }
+
+    /**
+     * 开启或关闭THREAD_POOL_EXECUTOR的自适应线程数。CORE_POOL_SIZE和MAX_POOL_SIZE是按计算密集任务设定的固定值，
+     * 且队列有界，只有队列满了才会创建核心线程以外的线程；开启后按实测的阻塞系数（I/O等待时间占比）和估算的排队时间
+     * 调整核心线程数，I/O密集的任务可以获得更多线程，计算密集的任务不会因此超额占用CPU。关闭时恢复默认线程数
+     *
+     * @param adaptive 是否开启
+     */
+    public static void setAdaptivePoolSizing(boolean adaptive) {
+        THREAD_POOL_EXECUTOR.setAdaptive(adaptive);
+    }
+
+    /**
+     * 设置THREAD_POOL_EXECUTOR的过载策略，串行、按key分组等最终提交到THREAD_POOL_EXECUTOR的执行方式同样生效
+     *
+     * @param policy 过载策略，见{@link OverflowPolicy}的各个工厂方法
+     */
+    public static void setOverflowPolicy(OverflowPolicy policy) {
+        if (policy == null) {
+            throw new NullPointerException("policy == null");
+        }
+        THREAD_POOL_EXECUTOR.setRejectedExecutionHandler(policy);
+    }
+
+    /**
+     * @return THREAD_POOL_EXECUTOR当前的过载策略，可以从中读取各种拒绝结果的次数
+     */
+    public static OverflowPolicy getOverflowPolicy() {
+        return (OverflowPolicy) THREAD_POOL_EXECUTOR.getRejectedExecutionHandler();
+    }
+
+    /**
+     * 使用按优先级调度的线程池：高优先级的任务插到已排队的低优先级任务之前执行，
+     * 与THREAD_POOL_EXECUTOR共用线程，并通过老化保证低优先级任务不会一直得不到执行
+     */
+    public static void usePriorityExecutor() {
+        mActualExecutor = PriorityExecutorHolder.PRIORITY_EXECUTOR;
+    }
+
+    /**
+     * 使用后进先出的线程池，最新提交的任务最先执行，适合列表滑动加载
+     */
+    public static void useLifoExecutor() {
+        useLifoExecutor(0);
+    }
+
+    /**
+     * 使用后进先出的线程池，排队任务超过maxDepth时自动取消最早加入的任务，
+     * 快速滑动时只执行最新的请求，缩短可见内容的加载时间
+     *
+     * @param maxDepth 排队任务上限，小于等于0表示不限制
+     */
+    public static void useLifoExecutor(int maxDepth) {
+        mActualExecutor = new LifoExecutor(THREAD_POOL_EXECUTOR, CORE_POOL_SIZE, maxDepth);
+    }
+
+    /**
+     * 设置任务优先级，需要在execute之前调用
+     *
+     * @param priority 优先级
+     */
+    public final void setPriority(Priority priority) {
+        if (priority == null) {
+            throw new NullPointerException("priority == null");
+        }
+        mPriority = priority;
+    }
+
+    public final Priority getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * 声明任务类型，需要在execute之前调用。声明为CPU或IO的任务在对应的线程池中执行，不受
+     * {@link #setDefaultExecutor setDefaultExecutor}影响，阻塞I/O的任务不会再占用为计算任务设定大小的线程池
+     *
+     * @param taskType 任务类型
+     */
+    public final void setTaskType(TaskType taskType) {
+        if (taskType == null) {
+            throw new NullPointerException("taskType == null");
+        }
+        mTaskType = taskType;
+    }
+
+    public final TaskType getTaskType() {
+        return mTaskType;
+    }
+
+    /**
+     * 设置任务生命周期追踪器，只影响之后execute的任务
+     *
+     * @param tracer 追踪器，null或{@link TaskTracer#NONE}表示不追踪
+     */
+    public static void setTracer(TaskTracer tracer) {
+        sTracer = tracer != null ? tracer : TaskTracer.NONE;
+    }
+
+    /**
+     * 设置慢任务检测，只检测之后execute的任务
+     *
+     * @param watchdog 检测器，null表示停止检测
+     */
+    public static synchronized void setWatchdog(TaskWatchdog watchdog) {
+        TaskWatchdog oldWatchdog = sWatchdog;
+        if (oldWatchdog == watchdog) {
+            return;
+        }
+        if (oldWatchdog != null) {
+            oldWatchdog.stop();
+        }
+        if (watchdog != null) {
+            watchdog.start();
+        }
+        sWatchdog = watchdog;
+    }
+
+    /**
+     * @return 当前execute使用的线程池
+     */
+    static Executor getDefaultExecutor() {
+        return mActualExecutor;
+    }
+
+    static Executor getThreadPoolExecutor() {
+        return THREAD_POOL_EXECUTOR;
+    }
+
+    static Executor getIoExecutor() {
+        return IoExecutorHolder.IO_EXECUTOR;
+    }
+
+    /**
+     * 设置onPostExecute/onCancelled的回调线程，默认为主线程。
+     * 在没有主线程Looper的JVM环境（单元测试、基准测试、桌面工具）中复用本包时，可以设置为直接执行的Executor
+     *
+     * @param executor 回调线程，null表示恢复为主线程
+     */
+    public static void setResultExecutor(Executor executor) {
+        ResultDispatcher.getInstance().setDeliveryExecutor(executor);
+    }
+
+    public final Status getStatus() {
+        return mCurrentStatus;
+    }
+
+    /**
+     * 阻塞等待doInBackground的结果，不能在主线程调用。不需要阻塞时使用{@link #asStage asStage}
+     *
+     * @throws CancellationException 任务被取消
+     * @throws ExecutionException    doInBackground抛出异常
+     */
+    public final Result get() throws InterruptedException, ExecutionException {
+        return mFutureTask.get();
+    }
+
+    /**
+     * 最多阻塞等待timeout，见{@link #get()}
+     */
+    public final Result get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+            TimeoutException {
+        return mFutureTask.get(timeout, unit);
+    }
+
+    /**
+     * 取消任务，已经结束（包括doInBackground已经返回、还在等待主线程回调）的任务不能再取消，返回false，
+     * 仍然回调onPostExecute。取消成功时isCancelled在FutureTask的done中设置，之后回调onCancelled
+     *
+     * @return 是否取消成功
+     */
     public final boolean cancel(boolean mayInterruptIfRunning) {
-        isCancelled.set(true);
-        return mFutureTask.cancel(mayInterruptIfRunning);
+        if (!mFutureTask.cancel(mayInterruptIfRunning)) {
+            return false;
+        }
+        ProgressChannel<?> channel = mProgressChannel;
+        if (channel != null) {
+            channel.close();
+        }
+        return true;
     }
 
-    private boolean isCancelled() {
+    /**
+     * @return 任务是否已经结束（得到结果、失败或被取消），不要求已经回调onPostExecute/onCancelled
+     */
+    final boolean isDone() {
+        return mFutureTask.isDone();
+    }
+
+    /**
+     * 绑定进度通道，需要在execute之前调用。任务结束时先在主线程回调通道中还未回调的进度，再回调onPostExecute，
+     * 进度不会晚于结果到达；任务被取消后通道中的进度直接丢弃，不会在onCancelled之后才回调
+     *
+     * @param channel 进度通道，一个通道只能绑定一个任务
+     */
+    public final void setProgressChannel(ProgressChannel<?> channel) {
+        mProgressChannel = channel;
+    }
+
+    /**
+     * 是否已经被取消，可以在doInBackground中定期检查，被取消后尽快返回，不再继续占用CPU
+     */
+    public final boolean isCancelled() {
         return isCancelled.get();
     }
 
+    /**
+     * @return 只读的取消标记，可以传给doInBackground中调用的、不持有任务本身的代码（比如解析循环）定期检查
+     */
+    public final CancellationToken getCancellationToken() {
+        CancellationToken token = mCancellationToken;
+        if (token == null) {
+            //并发时可能创建多个，都读取同一个标记，没有影响
+            token = new CancellationToken(isCancelled);
+            mCancellationToken = token;
+        }
+        return token;
+    }
+
+    /**
+     * 从提交的执行器队列中撤回排队时被取消的任务，不再占用THREAD_BLOCKING_DEQUE等有界队列的位置。
+     * SerialExecutor是无锁队列，不能从中间删除，出队时直接跳过已取消的任务
+     */
+    private void removeFromQueue() {
+        Executor executor = mQueueExecutor;
+        if (executor instanceof ThreadPoolExecutor) {
+            ((ThreadPoolExecutor) executor).remove(mFutureTask);
+        } else if (executor instanceof DispatchingExecutor) {
+            ((DispatchingExecutor) executor).remove(mFutureTask);
+        } else if (executor == null && mQueueKey != null) {
+            KEYED_SERIAL_EXECUTOR.remove(mQueueKey, mFutureTask);
+        }
+    }
+
+    /**
+     * 在工作线程调用，把结果交给共用的主线程投递器，不再直接在工作线程回调onPostExecute
+     */
     private void finish(Result result) {
-        if (!isCancelled()) {
-            onPostExecute(result);
+        mResult = result;
+        if (mDeliverInline) {
+            deliverResult();
+        } else {
+            ResultDispatcher.getInstance().dispatch(mFutureTask);
+        }
+    }
+
+    /**
+     * 任务结果对应的阶段，也是任务的Future视图，可以在execute之前或之后调用，多次调用返回同一个阶段。
+     * 取消阶段即取消任务；任务失败或被取消时之后的阶段都不再执行
+     */
+    public final TaskStage<Result> asStage() {
+        final TaskStage<Result> stage;
+        synchronized (mFutureTask) {
+            if (mStage != null) {
+                return mStage;
+            }
+            stage = TaskStage.fromTask(mFutureTask);
+            mStage = stage;
+        }
+        addCompletionListener(new CompletionListener<Result>() {
+            @Override
+            public void onComplete(Result result, Throwable error, boolean cancelled) {
+                stage.complete(result, cancelled ? new CancellationException("the task is cancelled.") : error);
+            }
+        });
+        return stage;
+    }
+
+    /**
+     * 任务完成后直接在工作线程池中执行fn，不经过主线程，见{@link TaskStage#thenApply(TaskStage.Function)}
+     */
+    public final <R> TaskStage<R> thenApply(TaskStage.Function<? super Result, ? extends R> fn) {
+        return asStage().thenApply(fn);
+    }
+
+    /**
+     * 任务完成后直接在工作线程池中执行fn，以fn返回的阶段的结果结束，见{@link TaskStage#thenCompose(TaskStage.Function)}
+     */
+    public final <R> TaskStage<R> thenCompose(TaskStage.Function<? super Result, ? extends TaskStage<R>> fn) {
+        return asStage().thenCompose(fn);
+    }
+
+    /**
+     * 注册任务结束时的内部回调，任务已经结束时直接在当前线程回调
+     */
+    void addCompletionListener(CompletionListener<? super Result> listener) {
+        synchronized (mFutureTask) {
+            if (!mCompleted) {
+                if (mCompletionListeners == null) {
+                    mCompletionListeners = new ArrayList<>(2);
+                }
+                mCompletionListeners.add(listener);
+                return;
+            }
+        }
+        notifyCompletion(listener);
+    }
+
+    /**
+     * 在结束任务的线程调用，mResult已经在finish中设置
+     */
+    private void complete(Throwable error, boolean cancelled) {
+        List<CompletionListener<? super Result>> listeners;
+        synchronized (mFutureTask) {
+            mCompleted = true;
+            mCompleteError = error;
+            mCompleteCancelled = cancelled;
+            listeners = mCompletionListeners;
+            mCompletionListeners = null;
+        }
+        if (listeners != null) {
+            for (CompletionListener<? super Result> listener : listeners) {
+                notifyCompletion(listener);
+            }
+        }
+    }
+
+    private void notifyCompletion(CompletionListener<? super Result> listener) {
+        try {
+            listener.onComplete(mResult, mCompleteError, mCompleteCancelled);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "the completion listener failed.", e);
+        }
+    }
+
+    /**
+     * 由{@link ResultDispatcher}在主线程调用
+     */
+    private void deliverResult() {
+        trace(TaskTracer.Event.DELIVER_START);
+        ProgressChannel<?> channel = mProgressChannel;
+        if (channel != null) {
+            if (isCancelled()) {
+                channel.close();
+            } else {
+                channel.flushAndClose();
+            }
+        }
+        if (isCancelled()) {
+            onCancelled();
+        } else {
+            onPostExecute(mResult);
         }
         mCurrentStatus = Status.FINISHED;
+        trace(TaskTracer.Event.FINISH);
+    }
+
+    private void trace(TaskTracer.Event event) {
+        TaskTracer tracer = mTracer;
+        if (tracer != TaskTracer.NONE) {
+            tracer.trace(event, mTraceId, getClass().getName(), System.nanoTime());
+        }
     }
 
     public void execute(Params... params) {
+        Executor executor = prepareSubmission(params);
+        if (executor == null) {
+            return;
+        }
+        try {
+            executor.execute(mFutureTask);
+        } catch (RejectedExecutionException e) {
+            onRejected(e);
+            throw e;
+        }
+    }
+
+    /**
+     * 批量执行：每个任务和execute一样回调onPreExecute、使用缓存和合并，但提交到同一个执行器的任务只入队一次，
+     * 不再每个任务都争用一次SerialExecutor的队尾或THREAD_BLOCKING_DEQUE的锁，
+     * 一次提交几百个任务时也不会占满THREAD_BLOCKING_DEQUE触发过载策略
+     *
+     * @param tasks  还未执行的任务
+     * @param params 所有任务共用的执行参数
+     */
+    public static <Params> void executeAll(Collection<? extends MyAsynTask<Params, ?>> tasks, Params... params) {
+        Map<Executor, List<MyAsynTask<Params, ?>>> batches = new IdentityHashMap<>();
+        RuntimeException failure = null;
+        try {
+            for (MyAsynTask<Params, ?> task : tasks) {
+                Executor executor = task.prepareSubmission(params);
+                if (executor == null) {
+                    continue;
+                }
+                List<MyAsynTask<Params, ?>> batch = batches.get(executor);
+                if (batch == null) {
+                    batch = new ArrayList<>(tasks.size());
+                    batches.put(executor, batch);
+                }
+                batch.add(task);
+            }
+        } catch (RuntimeException e) {
+            //任务重复、已经执行过或onPreExecute抛出异常：前面已经回调过onPreExecute的任务照常提交，再抛出异常
+            failure = e;
+        }
+        for (Map.Entry<Executor, List<MyAsynTask<Params, ?>>> entry : batches.entrySet()) {
+            List<MyAsynTask<Params, ?>> batch = entry.getValue();
+            Runnable[] runnables = new Runnable[batch.size()];
+            for (int i = 0; i < runnables.length; i++) {
+                runnables[i] = batch.get(i).mFutureTask;
+            }
+            try {
+                BatchDrain.submit(entry.getKey(), runnables);
+            } catch (RejectedExecutionException e) {
+                for (MyAsynTask<Params, ?> task : batch) {
+                    task.onRejected(e);
+                }
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * execute前的准备：回调onPreExecute、查缓存、合并，按任务类型选择执行器
+     *
+     * @return 需要提交到的执行器，命中缓存或合并到正在执行的任务时返回null
+     */
+    private Executor prepareSubmission(Params[] params) {
+        prepareToExecute(params);
+        Object key = getCoalescingKey(params);
+        if (key != null && (deliverFromCache(key) || joinInFlightTask(key))) {
+            return null;
+        }
+        Executor executor;
+        switch (mTaskType) {
+            case CPU:
+                executor = THREAD_POOL_EXECUTOR;
+                break;
+            case IO:
+                executor = IoExecutorHolder.IO_EXECUTOR;
+                break;
+            default:
+                executor = mActualExecutor;
+                break;
+        }
+        mQueueExecutor = executor;
+        onSubmit(executor);
+        return executor;
+    }
+
+    private void onRejected(RejectedExecutionException e) {
+        onSubmitRejected();
+        if (mInFlightKey != null) {
+            //任务不会再执行，移出IN_FLIGHT_TASKS，让等待它的任务以取消结束
+            leaveInFlight();
+            complete(e, false);
+        }
+    }
+
+    /**
+     * 作为合并执行的第一个任务结束时移出IN_FLIGHT_TASKS，在回调onPostExecute和通知等待的任务之前调用，
+     * 之后相同key的execute会重新执行，不会合并到已经结束的任务
+     */
+    private void leaveInFlight() {
+        Object inFlightKey = mInFlightKey;
+        if (inFlightKey != null) {
+            IN_FLIGHT_TASKS.remove(inFlightKey, this);
+        }
+    }
+
+    /**
+     * 缓存命中时在当前线程直接回调onPostExecute；未命中时在任务成功后写入缓存
+     *
+     * @return 是否命中缓存
+     */
+    private boolean deliverFromCache(final Object key) {
+        final ResultCache<Object, Result> cache = getResultCache();
+        if (cache == null) {
+            return false;
+        }
+        Result cached = cache.get(key);
+        if (cached != null) {
+            mDeliverInline = true;
+            mFutureTask.setResult(cached);
+            return true;
+        }
+        addCompletionListener(new CompletionListener<Result>() {
+            @Override
+            public void onComplete(Result result, Throwable error, boolean cancelled) {
+                if (error == null && !cancelled) {
+                    cache.put(key, result);
+                }
+            }
+        });
+        return false;
+    }
+
+    /**
+     * 有相同key的任务正在执行时不再提交，等它结束后直接使用它的结果
+     *
+     * @return 是否合并到了正在执行的任务
+     */
+    @SuppressWarnings("unchecked")
+    private boolean joinInFlightTask(Object key) {
+        Object inFlightKey = Arrays.asList(getClass(), key);
+        MyAsynTask<?, Result> leader = (MyAsynTask<?, Result>) IN_FLIGHT_TASKS.putIfAbsent(inFlightKey, this);
+        if (leader == null) {
+            //任务结束时在done中移除，见leaveInFlight
+            mInFlightKey = inFlightKey;
+            return false;
+        }
+        //正在执行的任务刚好结束时直接回调，不会错过结果
+        leader.addCompletionListener(new CompletionListener<Result>() {
+            @Override
+            public void onComplete(Result result, Throwable error, boolean cancelled) {
+                if (error == null && !cancelled) {
+                    mFutureTask.setResult(result);
+                } else {
+                    mFutureTask.cancel(false);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * 带截止时间执行：从调用时开始计时（包括排队时间），到期还没有结束的任务自动cancel(true)，
+     * 回调onCancelled而不是onPostExecute。doInBackground需要检查{@link #isCancelled isCancelled}
+     * 或响应中断才能在执行中途停止
+     *
+     * @param timeout 超时时间
+     * @param unit    时间单位
+     * @param params  线程执行参数
+     */
+    public void executeWithTimeout(long timeout, TimeUnit unit, Params... params) {
+        if (unit == null) {
+            throw new NullPointerException("unit == null");
+        }
+        long timeoutNanos = unit.toNanos(timeout);
+        long startNanos = System.nanoTime();
+        execute(params);
+        //execute返回之后才开始计时，计时器不会在任务开始排队之前取消它；截止时间仍然从调用时算起
+        final ScheduledFuture<?> timer = TimeoutScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                cancel(true);
+            }
+        }, timeoutNanos - (System.nanoTime() - startNanos), TimeUnit.NANOSECONDS);
+        addCompletionListener(new CompletionListener<Result>() {
+            @Override
+            public void onComplete(Result result, Throwable error, boolean cancelled) {
+                timer.cancel(false);
+            }
+        });
+    }
+
+    /**
+     * 按key分组执行：相同key（比如同一个地图瓦片id）的任务严格按调用顺序逐个执行，
+     * 不同key的任务在共享线程池中并发执行，不受{@link #setDefaultExecutor setDefaultExecutor}影响
+     *
+     * @param key    分组key，需要正确实现equals和hashCode
+     * @param params 线程执行参数
+     */
+    public void executeOnKey(Object key, Params... params) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        prepareToExecute(params);
+        mQueueKey = key;
+        onSubmit(KEYED_SERIAL_EXECUTOR);
+        try {
+            KEYED_SERIAL_EXECUTOR.execute(key, mFutureTask);
+        } catch (RejectedExecutionException e) {
+            onSubmitRejected();
+            throw e;
+        }
+    }
+
+    private void onSubmit(Object executor) {
+        if (ExecutorMetrics.isEnabled()) {
+            mMetrics = ExecutorMetrics.of(executor);
+            mMetrics.onSubmit();
+            mSubmitNanos = System.nanoTime();
+        }
+        TaskWatchdog watchdog = sWatchdog;
+        if (watchdog != null) {
+            mWatchdogTicket = watchdog.onSubmit(getClass().getName());
+        }
+    }
+
+    private void onSubmitRejected() {
+        if (mMetrics != null) {
+            mMetrics.onReject();
+        }
+        if (mWatchdogTicket != null) {
+            mWatchdogTicket.onFinish();
+        }
+    }
+
+    private void prepareToExecute(Params[] params) {
         if (mCurrentStatus == Status.RUNNING) {
             throw new IllegalThreadStateException("the task is running,can not execute again.");
         } else if (mCurrentStatus == Status.FINISHED) {
@@ -178,10 +1002,15 @@ public abstract class MyAsynTask<Params, Result> {
         }
 
         mCurrentStatus = Status.RUNNING;
+        TaskTracer tracer = sTracer;
+        if (tracer != TaskTracer.NONE) {
+            mTraceId = sTraceId.incrementAndGet();
+            mTracer = tracer;
+            trace(TaskTracer.Event.EXECUTE);
+        }
         onPreExecute();
 
         mTaskCallable.mParams = params;
-        mActualExecutor.execute(mFutureTask);
     }
 
     /**
@@ -192,6 +1021,31 @@ public abstract class MyAsynTask<Params, Result> {
      */
     protected abstract Result doInBackground(Params... params);
 
+    /**
+     * 开启合并执行：返回非null时，execute发现相同任务类、相同key的任务正在执行（已提交还未结束），
+     * 不再提交新的doInBackground，等待那个任务结束后以它的结果回调本任务的onPostExecute；
+     * 那个任务失败或被取消时本任务回调onCancelled。取消本任务不影响正在执行的任务。
+     * 适合结果只由参数决定的任务，比如同一列表项被连续点击多次时只加载一次。
+     * 只对{@link #execute execute}生效，在调用execute的线程中调用，同时也是{@link #getResultCache 结果缓存}的key
+     *
+     * @param params 线程执行参数
+     * @return 合并key，需要正确实现equals和hashCode，默认为null表示不合并
+     */
+    protected Object getCoalescingKey(Params... params) {
+        return null;
+    }
+
+    /**
+     * 开启结果缓存：返回非null时，以{@link #getCoalescingKey getCoalescingKey}的返回值为key缓存成功的结果，
+     * execute命中缓存时在调用线程直接回调onPostExecute（在onPreExecute之后），不再提交到任何线程池；
+     * 未命中时仍然会与正在执行的相同任务合并。适合结果只由参数决定的任务，缓存通常是任务类的静态常量
+     *
+     * @return 结果缓存，默认为null表示不缓存
+     */
+    protected ResultCache<Object, Result> getResultCache() {
+        return null;
+    }
+
     /**
      * 线程执行前的操作
      */
@@ -206,6 +1060,109 @@ public abstract class MyAsynTask<Params, Result> {
     protected void onPostExecute(Result result) {
     }
 
+    /**
+     * 线程被取消后的操作，在主线程回调，此时不会再回调onPostExecute
+     */
+    protected void onCancelled() {
+    }
+
+    private final class TaskFutureTask extends FutureTask<Result>
+            implements PriorityExecutor.PrioritizedRunnable, ResultDispatcher.Deliverable {
+        /**
+         * 排队状态，见QUEUE_STATE_UPDATER
+         */
+        volatile int mQueueState = QUEUE_WAITING;
+
+        TaskFutureTask(Callable<Result> callable) {
+            super(callable);
+        }
+
+        @Override
+        public void run() {
+            //排队时已经被取消，只可能是撤回队列前被线程池取出
+            if (!QUEUE_STATE_UPDATER.compareAndSet(this, QUEUE_WAITING, QUEUE_STARTED)) {
+                return;
+            }
+            ExecutorMetrics metrics = mMetrics;
+            long startNanos = 0;
+            if (metrics != null) {
+                startNanos = System.nanoTime();
+                metrics.onStart(startNanos - mSubmitNanos);
+            }
+            TaskWatchdog.Ticket ticket = mWatchdogTicket;
+            if (ticket != null) {
+                ticket.onStart();
+            }
+            trace(TaskTracer.Event.BACKGROUND_START);
+            try {
+                super.run();
+            } finally {
+                trace(TaskTracer.Event.BACKGROUND_END);
+                if (ticket != null) {
+                    ticket.onFinish();
+                }
+                if (metrics != null) {
+                    metrics.onComplete(System.nanoTime() - startNanos);
+                }
+            }
+        }
+
+        /**
+         * 合并执行时直接以正在执行的任务的结果结束
+         */
+        void setResult(Result result) {
+            set(result);
+        }
+
+        private void finishCancelled() {
+            isCancelled.set(true);
+            if (QUEUE_STATE_UPDATER.compareAndSet(this, QUEUE_WAITING, QUEUE_DROPPED)) {
+                removeFromQueue();
+                if (mMetrics != null) {
+                    mMetrics.onDrop();
+                }
+            }
+            if (mWatchdogTicket != null) {
+                mWatchdogTicket.onFinish();
+            }
+            finish(null);
+            complete(null, true);
+        }
+
+        @Override
+        public Priority getPriority() {
+            return mPriority;
+        }
+
+        @Override
+        public void deliver() {
+            deliverResult();
+        }
+
+        @Override
+        protected void done() {
+            leaveInFlight();
+            try {
+                finish(get());
+                complete(null, false);
+            } catch (InterruptedException e) {
+                Log.w(TAG, "the task is interrupted.");
+            } catch (CancellationException e) {
+                //被取消（包括过载策略丢弃）的任务同样需要结束，否则异常会抛给调用cancel的线程
+                finishCancelled();
+            } catch (ExecutionException e) {
+                //取消后doInBackground通过CancellationToken.throwIfCancelled退出，同样按取消处理
+                if (e.getCause() instanceof CancellationException && isCancelled()) {
+                    finishCancelled();
+                    return;
+                }
+                complete(e.getCause(), false);
+                throw new RuntimeException("An error occured while executing doInBackground()",
+                        e.getCause());
+            }
+        }
+    }
+
     private static abstract class TaskCallable<Params, Result> implements Callable<Result> {
         Params mParams[];
     }
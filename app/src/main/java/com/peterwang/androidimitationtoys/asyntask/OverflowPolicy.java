@@ -0,0 +1,255 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 线程池队列已满且线程数达到上限时的过载策略，除了与ThreadPoolExecutor默认的AbortPolicy一样直接抛出RejectedExecutionException，
+ * 还可以选择在调用线程执行、丢弃最早的任务、阻塞等待或转移到备用线程池，
+ * 可以设置到任意ThreadPoolExecutor上，并按{@link Outcome}统计每种拒绝结果出现的次数
+ *
+ * @author peter_wang
+ * @create-time 26/10/16 11:05
+ */
+public abstract class OverflowPolicy implements RejectedExecutionHandler {
+
+    /**
+     * 任务被拒绝后的处理结果
+     */
+    public enum Outcome {
+        /**
+         * 在提交任务的线程中直接执行
+         */
+        CALLER_RAN,
+        /**
+         * 丢弃了队列中最早的任务，新任务重新入队
+         */
+        DISCARDED_OLDEST,
+        /**
+         * 提交线程等待后成功入队
+         */
+        ACCEPTED_AFTER_BLOCKING,
+        /**
+         * 提交线程等待超时，仍然抛出RejectedExecutionException
+         */
+        TIMED_OUT,
+        /**
+         * 转移到无界的备用线程池中执行
+         */
+        SPILLED,
+        /**
+         * 线程池已关闭、使用{@link #abortPolicy abortPolicy}或没有可以丢弃的任务，抛出RejectedExecutionException
+         */
+        ABORTED
+    }
+
+    /**
+     * 队列中最早的任务被丢弃时的回调
+     */
+    public interface OnDiscardListener {
+        /**
+         * @param runnable 被丢弃的任务，MyAsynTask提交的任务此时已经被取消
+         */
+        void onDiscard(Runnable runnable);
+    }
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(Outcome.values().length);
+
+    /**
+     * 与ThreadPoolExecutor默认的AbortPolicy相同，直接抛出RejectedExecutionException，THREAD_POOL_EXECUTOR默认使用该策略
+     */
+    public static OverflowPolicy abortPolicy() {
+        return new AbortPolicy();
+    }
+
+    /**
+     * 在提交任务的线程中直接执行被拒绝的任务，提交速度自然被限制在线程池处理速度之内。
+     * 注意在主线程提交时会阻塞主线程
+     */
+    public static OverflowPolicy callerRuns() {
+        return new CallerRunsPolicy();
+    }
+
+    /**
+     * 丢弃队列中最早的Future任务（先取消，MyAsynTask会回调onCancelled），再重新提交新任务。
+     * SerialExecutor、按key分组等执行器提交到队列中的调度任务不是Future，丢弃后它们再也不会调度下一个任务，
+     * 所以跳过不丢弃；队列中没有Future任务时按{@link #abortPolicy abortPolicy}抛出RejectedExecutionException
+     *
+     * @param listener 丢弃任务时的回调，可以为null
+     */
+    public static OverflowPolicy discardOldest(OnDiscardListener listener) {
+        return new DiscardOldestPolicy(listener);
+    }
+
+    /**
+     * 阻塞提交线程直到队列有空位，超时后仍然抛出RejectedExecutionException
+     *
+     * @param timeout 最长等待时间
+     * @param unit    时间单位
+     */
+    public static OverflowPolicy blockWithTimeout(long timeout, TimeUnit unit) {
+        return new BlockWithTimeoutPolicy(unit.toNanos(timeout));
+    }
+
+    /**
+     * 把被拒绝的任务转移到一个单线程、无界队列的备用线程池执行，备用线程空闲后自动回收
+     */
+    public static OverflowPolicy spillToOverflow() {
+        return new SpillPolicy();
+    }
+
+    /**
+     * @param outcome 拒绝结果
+     * @return 该结果累计出现的次数
+     */
+    public final long getCount(Outcome outcome) {
+        return mCounts.get(outcome.ordinal());
+    }
+
+    /**
+     * @return 所有拒绝结果累计出现的次数
+     */
+    public final long getTotalCount() {
+        long total = 0;
+        for (int i = 0; i < mCounts.length(); i++) {
+            total += mCounts.get(i);
+        }
+        return total;
+    }
+
+    protected final void record(Outcome outcome) {
+        mCounts.incrementAndGet(outcome.ordinal());
+    }
+
+    protected final void abort(Runnable runnable, ThreadPoolExecutor executor) {
+        record(Outcome.ABORTED);
+        throw new RejectedExecutionException("Task " + runnable + " rejected from " + executor);
+    }
+
+    private static final class AbortPolicy extends OverflowPolicy {
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            abort(runnable, executor);
+        }
+    }
+
+    private static final class CallerRunsPolicy extends OverflowPolicy {
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                abort(runnable, executor);
+            }
+            record(Outcome.CALLER_RAN);
+            runnable.run();
+        }
+    }
+
+    private static final class DiscardOldestPolicy extends OverflowPolicy {
+        private final OnDiscardListener mListener;
+
+        DiscardOldestPolicy(OnDiscardListener listener) {
+            mListener = listener;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                abort(runnable, executor);
+            }
+            Future<?> oldest = pollOldestFuture(executor.getQueue());
+            if (oldest == null) {
+                abort(runnable, executor);
+            }
+            record(Outcome.DISCARDED_OLDEST);
+            oldest.cancel(false);
+            if (mListener != null) {
+                mListener.onDiscard((Runnable) oldest);
+            }
+            executor.execute(runnable);
+        }
+
+        /**
+         * 从队头开始找第一个Future任务并移出队列，其他线程同时取走了该任务时继续往后找
+         */
+        private static Future<?> pollOldestFuture(BlockingQueue<Runnable> queue) {
+            for (Runnable queued : queue) {
+                if (queued instanceof Future && queue.remove(queued)) {
+                    return (Future<?>) queued;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class BlockWithTimeoutPolicy extends OverflowPolicy {
+        private final long mTimeoutNanos;
+
+        BlockWithTimeoutPolicy(long timeoutNanos) {
+            mTimeoutNanos = timeoutNanos;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                abort(runnable, executor);
+            }
+            boolean accepted;
+            try {
+                accepted = executor.getQueue().offer(runnable, mTimeoutNanos, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                accepted = false;
+            }
+            if (!accepted) {
+                record(Outcome.TIMED_OUT);
+                throw new RejectedExecutionException("Task " + runnable + " timed out waiting for " + executor);
+            }
+            record(Outcome.ACCEPTED_AFTER_BLOCKING);
+        }
+    }
+
+    private static final class SpillPolicy extends OverflowPolicy {
+        private static final int KEEP_ALIVE_TIME = 3;
+        private static final AtomicInteger sThreadIndex = new AtomicInteger(1);
+
+        private volatile ThreadPoolExecutor mOverflowExecutor;
+
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                abort(runnable, executor);
+            }
+            record(Outcome.SPILLED);
+            getOverflowExecutor().execute(runnable);
+        }
+
+        private ThreadPoolExecutor getOverflowExecutor() {
+            ThreadPoolExecutor overflowExecutor = mOverflowExecutor;
+            if (overflowExecutor == null) {
+                synchronized (this) {
+                    overflowExecutor = mOverflowExecutor;
+                    if (overflowExecutor == null) {
+                        overflowExecutor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                            @Override
+                            public Thread newThread(Runnable r) {
+                                return new Thread(r, "MyAsynTask-overflow #" + sThreadIndex.getAndIncrement());
+                            }
+                        });
+                        overflowExecutor.allowCoreThreadTimeOut(true);
+                        mOverflowExecutor = overflowExecutor;
+                    }
+                }
+            }
+            return overflowExecutor;
+        }
+    }
+}
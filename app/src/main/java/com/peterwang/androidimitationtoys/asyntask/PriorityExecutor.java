@@ -0,0 +1,94 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按优先级调度的线程池：任务先放入优先队列，调度任务真正开始执行时才取出当前优先级最高的任务，
+ * 因此高优先级任务可以插到已排队的低优先级任务之前，且与其他执行方式共用同一个线程池。
+ * <p/>
+ * 老化（aging）防止低优先级任务饿死：任务的排序值为 入队时间 + 优先级 * 老化间隔，
+ * 低一级的任务最多比高一级的任务多等待一个老化间隔
+ *
+ * @author peter_wang
+ * @create-time 26/10/16 14:10
+ */
+final class PriorityExecutor extends DispatchingExecutor {
+    /**
+     * 带优先级的任务，其他任务按{@link MyAsynTask.Priority#BACKGROUND BACKGROUND}处理
+     */
+    interface PrioritizedRunnable extends Runnable {
+        MyAsynTask.Priority getPriority();
+    }
+
+    private final long mAgingNanos;
+    private final PriorityBlockingQueue<Entry> mQueue = new PriorityBlockingQueue<>();
+    /**
+     * 入队序号，排序值相同时保证先进先出
+     */
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /**
+     * @param targetExecutor 实际执行任务的线程池
+     * @param maxConcurrency 最多同时执行的任务数
+     * @param agingTime      老化间隔
+     * @param unit           时间单位
+     */
+    PriorityExecutor(Executor targetExecutor, int maxConcurrency, long agingTime, TimeUnit unit) {
+        super(targetExecutor, maxConcurrency);
+        mAgingNanos = unit.toNanos(agingTime);
+    }
+
+    @Override
+    protected void offer(Runnable runnable) {
+        MyAsynTask.Priority priority = runnable instanceof PrioritizedRunnable
+                ? ((PrioritizedRunnable) runnable).getPriority() : MyAsynTask.Priority.BACKGROUND;
+        long rank = System.nanoTime() + priority.ordinal() * mAgingNanos;
+        mQueue.offer(new Entry(runnable, rank, mSequence.getAndIncrement()));
+    }
+
+    @Override
+    protected Runnable poll() {
+        Entry entry = mQueue.poll();
+        return entry != null ? entry.mRunnable : null;
+    }
+
+    @Override
+    protected boolean isEmpty() {
+        return mQueue.isEmpty();
+    }
+
+    @Override
+    protected boolean remove(Runnable runnable) {
+        for (Entry entry : mQueue) {
+            if (entry.mRunnable == runnable) {
+                return mQueue.remove(entry);
+            }
+        }
+        return false;
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        private final Runnable mRunnable;
+        private final long mRank;
+        private final long mSequence;
+
+        Entry(Runnable runnable, long rank, long sequence) {
+            mRunnable = runnable;
+            mRank = rank;
+            mSequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Entry another) {
+            //nanoTime可能溢出，比较差值而不是直接比较大小
+            long diff = mRank - another.mRank;
+            if (diff != 0) {
+                return diff < 0 ? -1 : 1;
+            }
+            return mSequence < another.mSequence ? -1 : (mSequence == another.mSequence ? 0 : 1);
+        }
+    }
+}
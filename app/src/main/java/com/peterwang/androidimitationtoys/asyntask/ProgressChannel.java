@@ -0,0 +1,177 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 进度发布通道，在doInBackground中调用{@link #publish publish}，在主线程回调{@link OnProgressUpdateListener}。
+ * 两次回调之间的多次publish会被合并（默认只保留最新值，也可以传入合并函数），每个间隔最多回调一次，
+ * 通道本身就是post到主线程的Runnable，紧密循环中频繁publish也不会每次都创建Message。
+ * 通过{@link MyAsynTask#setProgressChannel MyAsynTask.setProgressChannel}绑定到任务后，任务结束时还未回调的进度
+ * 在onPostExecute之前立即回调，任务被取消后的进度直接丢弃；结束后通道关闭，不能再给其他任务使用
+ *
+ * @author peter_wang
+ * @create-time 26/10/16 16:40
+ */
+public final class ProgressChannel<Progress> implements Runnable {
+    /**
+     * 默认回调间隔，约为一帧
+     */
+    public static final long DEFAULT_INTERVAL_MILLIS = 16;
+    /**
+     * 没有待回调进度的标记，允许进度值本身为null
+     */
+    private static final Object NONE = new Object();
+
+    /**
+     * 主线程进度回调
+     */
+    public interface OnProgressUpdateListener<Progress> {
+        void onProgressUpdate(Progress progress);
+    }
+
+    /**
+     * 合并两次回调之间的进度
+     */
+    public interface Combiner<Progress> {
+        /**
+         * @param pending 还未回调的进度
+         * @param latest  最新发布的进度
+         * @return 合并后的进度
+         */
+        Progress combine(Progress pending, Progress latest);
+    }
+
+    private static final class MainHandlerHolder {
+        private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+    }
+
+    private final OnProgressUpdateListener<Progress> mListener;
+    private final Combiner<Progress> mCombiner;
+    private final long mIntervalMillis;
+    private final AtomicReference<Object> mPending = new AtomicReference<>(NONE);
+    /**
+     * 是否已经post到主线程还未执行
+     */
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+    /**
+     * 上次回调的时间，只在主线程写
+     */
+    private volatile long mLastDeliveryTime;
+    /**
+     * 关闭后不再回调进度
+     */
+    private volatile boolean mClosed;
+
+    private ProgressChannel(OnProgressUpdateListener<Progress> listener, Combiner<Progress> combiner,
+                            long intervalMillis) {
+        if (listener == null) {
+            throw new NullPointerException("listener == null");
+        }
+        mListener = listener;
+        mCombiner = combiner;
+        mIntervalMillis = intervalMillis;
+    }
+
+    /**
+     * 只保留最新进度，每帧最多回调一次
+     */
+    public static <Progress> ProgressChannel<Progress> latestWins(OnProgressUpdateListener<Progress> listener) {
+        return new ProgressChannel<>(listener, null, DEFAULT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * 只保留最新进度
+     *
+     * @param intervalMillis 最小回调间隔
+     */
+    public static <Progress> ProgressChannel<Progress> latestWins(OnProgressUpdateListener<Progress> listener,
+                                                                 long intervalMillis) {
+        return new ProgressChannel<>(listener, null, intervalMillis);
+    }
+
+    /**
+     * 用combiner合并两次回调之间的所有进度，比如累加已下载的字节数
+     *
+     * @param intervalMillis 最小回调间隔
+     */
+    public static <Progress> ProgressChannel<Progress> merging(OnProgressUpdateListener<Progress> listener,
+                                                              Combiner<Progress> combiner, long intervalMillis) {
+        if (combiner == null) {
+            throw new NullPointerException("combiner == null");
+        }
+        return new ProgressChannel<>(listener, combiner, intervalMillis);
+    }
+
+    /**
+     * 发布进度，可以在任意线程调用
+     *
+     * @param progress 进度
+     */
+    @SuppressWarnings("unchecked")
+    public void publish(Progress progress) {
+        if (mClosed) {
+            return;
+        }
+        if (mCombiner == null) {
+            mPending.set(progress);
+        } else {
+            while (true) {
+                Object pending = mPending.get();
+                Object combined = pending == NONE ? progress : mCombiner.combine((Progress) pending, progress);
+                if (mPending.compareAndSet(pending, combined)) {
+                    break;
+                }
+            }
+        }
+
+        if (mScheduled.compareAndSet(false, true)) {
+            //mLastDeliveryTime只在主线程写，这里读到旧值最多让本次回调提前，不影响正确性
+            long delay = mLastDeliveryTime + mIntervalMillis - SystemClock.uptimeMillis();
+            MainHandlerHolder.MAIN_HANDLER.postDelayed(this, Math.max(0, delay));
+        }
+    }
+
+    /**
+     * 在主线程回调，外部不要直接调用
+     */
+    @Override
+    public void run() {
+        //先清除标记再取值，取值之后的publish会重新post，不会丢失进度
+        mScheduled.set(false);
+        if (mClosed) {
+            return;
+        }
+        deliverPending();
+    }
+
+    /**
+     * 绑定的任务结束时在主线程调用：立即回调还未回调的进度，之后不再回调
+     */
+    void flushAndClose() {
+        mClosed = true;
+        deliverPending();
+    }
+
+    /**
+     * 绑定的任务被取消时调用，可以在任意线程：丢弃还未回调的进度，之后不再回调
+     */
+    void close() {
+        mClosed = true;
+        mPending.set(NONE);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void deliverPending() {
+        Object progress = mPending.getAndSet(NONE);
+        if (progress == NONE) {
+            return;
+        }
+        mLastDeliveryTime = SystemClock.uptimeMillis();
+        mListener.onProgressUpdate((Progress) progress);
+    }
+}
@@ -0,0 +1,275 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 可复用的MyAsynTask：生命周期与MyAsynTask相同（onPreExecute、doInBackground、onPostExecute/onCancelled），
+ * 但不依赖FutureTask，执行结束后调用{@link #recycle recycle}即可重置并重新execute，配合{@link Pool}使用时放回对象池。
+ * 每秒提交成千上万个小任务的场景下，每次执行不再分配TaskCallable、FutureTask、AtomicBoolean等对象，减少GC
+ *
+ * @author peter_wang
+ * @create-time 26/10/17 09:40
+ */
+public abstract class RecyclableAsynTask<Params, Result> implements Runnable {
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_RUNNING = 1;
+    private static final int STATE_FINISHED = 2;
+
+    /**
+     * 中断握手，与FutureTask的INTERRUPTING状态作用相同：run退出前等待正在进行的中断完成再清除中断状态，
+     * 中断不会落到线程池中执行下一个任务的同一线程上
+     */
+    private static final int INTERRUPT_NONE = 0;
+    private static final int INTERRUPT_INTERRUPTING = 1;
+    private static final int INTERRUPT_INTERRUPTED = 2;
+    /**
+     * 不在执行doInBackground，cancel不会再中断
+     */
+    private static final int INTERRUPT_EXITED = 3;
+
+    /**
+     * 排队状态，与MyAsynTask相同：排队时被取消的任务从执行器队列中撤回，
+     * 不能撤回的（比如SerialExecutor中的）出队后直接跳过
+     */
+    private static final int QUEUE_WAITING = 0;
+    private static final int QUEUE_STARTED = 1;
+    private static final int QUEUE_DROPPED = 2;
+
+    private final AtomicInteger mState = new AtomicInteger(STATE_IDLE);
+    private final AtomicInteger mInterruptState = new AtomicInteger(INTERRUPT_EXITED);
+    private final AtomicInteger mQueueState = new AtomicInteger(QUEUE_STARTED);
+    /**
+     * 提交到的执行器，排队时被取消用于撤回
+     */
+    private volatile Executor mQueueExecutor;
+    private volatile boolean mCancelled;
+    /**
+     * 正在执行doInBackground的线程，用于取消时中断
+     */
+    private volatile Thread mRunner;
+    private Params[] mParams;
+    private Result mResult;
+    /**
+     * 所属对象池，不是从对象池取出的任务为null
+     */
+    private Pool<?> mPool;
+    /**
+     * 主线程回调，每个任务只创建一次，复用时不再分配
+     */
+    private final ResultDispatcher.Deliverable mDeliverable = new ResultDispatcher.Deliverable() {
+        @Override
+        public void deliver() {
+            if (mCancelled) {
+                onCancelled();
+            } else {
+                onPostExecute(mResult);
+            }
+            mState.set(STATE_FINISHED);
+        }
+    };
+
+    /**
+     * 固定容量的任务对象池
+     */
+    public static final class Pool<T extends RecyclableAsynTask<?, ?>> {
+        /**
+         * 创建新的任务
+         */
+        public interface Factory<T> {
+            T create();
+        }
+
+        private final Factory<T> mFactory;
+        private final Object[] mPool;
+        private int mPoolSize;
+
+        /**
+         * @param factory 对象池为空时创建新任务
+         * @param maxSize 对象池最多缓存的任务数
+         */
+        public Pool(Factory<T> factory, int maxSize) {
+            if (maxSize <= 0) {
+                throw new IllegalArgumentException("the max pool size must be > 0");
+            }
+            mFactory = factory;
+            mPool = new Object[maxSize];
+        }
+
+        /**
+         * 从对象池取出一个任务，对象池为空时新建
+         */
+        @SuppressWarnings("unchecked")
+        public T acquire() {
+            T task = null;
+            synchronized (this) {
+                if (mPoolSize > 0) {
+                    int lastIndex = mPoolSize - 1;
+                    task = (T) mPool[lastIndex];
+                    mPool[lastIndex] = null;
+                    mPoolSize--;
+                }
+            }
+            if (task == null) {
+                task = mFactory.create();
+            }
+            ((RecyclableAsynTask<?, ?>) task).mPool = this;
+            return task;
+        }
+
+        private synchronized void release(Object task) {
+            if (mPoolSize < mPool.length) {
+                mPool[mPoolSize++] = task;
+            }
+        }
+    }
+
+    /**
+     * 在默认线程池中执行，见{@link MyAsynTask#setDefaultExecutor MyAsynTask.setDefaultExecutor}
+     *
+     * @param params 线程执行参数
+     */
+    public final void execute(Params... params) {
+        if (!mState.compareAndSet(STATE_IDLE, STATE_RUNNING)) {
+            throw new IllegalThreadStateException("the task is running or finished,recycle it before execute again.");
+        }
+        onPreExecute();
+
+        mParams = params;
+        Executor executor = MyAsynTask.getDefaultExecutor();
+        mQueueExecutor = executor;
+        mQueueState.set(QUEUE_WAITING);
+        executor.execute(this);
+    }
+
+    /**
+     * 在线程池中执行，外部不要直接调用
+     */
+    @Override
+    public final void run() {
+        if (!mQueueState.compareAndSet(QUEUE_WAITING, QUEUE_STARTED)) {
+            //排队时已经被取消并回调了onCancelled
+            return;
+        }
+        Throwable error = null;
+        mRunner = Thread.currentThread();
+        mInterruptState.set(INTERRUPT_NONE);
+        try {
+            if (!mCancelled) {
+                mResult = doInBackground(mParams);
+            }
+        } catch (Throwable throwable) {
+            error = throwable;
+        } finally {
+            if (!mInterruptState.compareAndSet(INTERRUPT_NONE, INTERRUPT_EXITED)) {
+                //cancel正在或已经中断当前线程，等中断完成后清除中断状态，避免影响线程池中的下一个任务
+                while (mInterruptState.get() == INTERRUPT_INTERRUPTING) {
+                    Thread.yield();
+                }
+                Thread.interrupted();
+                mInterruptState.set(INTERRUPT_EXITED);
+            }
+            mRunner = null;
+        }
+        //取消后doInBackground因为中断抛出异常（InterruptedException、InterruptedIOException等）属于正常结束，回调onCancelled
+        if (error != null && !mCancelled) {
+            mState.set(STATE_FINISHED);
+            throw new RuntimeException("An error occured while executing doInBackground()", error);
+        }
+        ResultDispatcher.getInstance().dispatch(mDeliverable);
+    }
+
+    public final boolean cancel(boolean mayInterruptIfRunning) {
+        if (mState.get() != STATE_RUNNING) {
+            return false;
+        }
+        mCancelled = true;
+        if (mQueueState.compareAndSet(QUEUE_WAITING, QUEUE_DROPPED)) {
+            //还没开始执行，不会再进入run，在这里撤回并回调onCancelled
+            removeFromQueue();
+            ResultDispatcher.getInstance().dispatch(mDeliverable);
+            return true;
+        }
+        if (mayInterruptIfRunning && mInterruptState.compareAndSet(INTERRUPT_NONE, INTERRUPT_INTERRUPTING)) {
+            try {
+                Thread runner = mRunner;
+                if (runner != null) {
+                    runner.interrupt();
+                }
+            } finally {
+                mInterruptState.set(INTERRUPT_INTERRUPTED);
+            }
+        }
+        return true;
+    }
+
+    public final boolean isCancelled() {
+        return mCancelled;
+    }
+
+    private void removeFromQueue() {
+        Executor executor = mQueueExecutor;
+        if (executor instanceof ThreadPoolExecutor) {
+            ((ThreadPoolExecutor) executor).remove(this);
+        } else if (executor instanceof DispatchingExecutor) {
+            ((DispatchingExecutor) executor).remove(this);
+        }
+    }
+
+    /**
+     * 重置任务以便再次execute，从对象池取出的任务会放回对象池，之后不能再使用该任务的引用。
+     * 只能在结束后（onPostExecute或onCancelled中或之后）调用
+     */
+    public final void recycle() {
+        if (mState.get() == STATE_RUNNING) {
+            throw new IllegalThreadStateException("the task is running,can not recycle.");
+        }
+        mParams = null;
+        mResult = null;
+        mQueueExecutor = null;
+        mCancelled = false;
+        onRecycle();
+        mState.set(STATE_IDLE);
+
+        Pool<?> pool = mPool;
+        if (pool != null) {
+            mPool = null;
+            pool.release(this);
+        }
+    }
+
+    /**
+     * 线程执行
+     *
+     * @param params 线程执行参数
+     * @return 线程完的返回值
+     */
+    protected abstract Result doInBackground(Params... params);
+
+    /**
+     * 线程执行前的操作
+     */
+    protected void onPreExecute() {
+    }
+
+    /**
+     * 线程执行后的操作，在主线程回调
+     *
+     * @param result 线程执行完的返回值
+     */
+    protected void onPostExecute(Result result) {
+    }
+
+    /**
+     * 线程被取消后的操作，在主线程回调
+     */
+    protected void onCancelled() {
+    }
+
+    /**
+     * 任务被重置时调用，子类在这里清理自己持有的状态
+     */
+    protected void onRecycle() {
+    }
+}
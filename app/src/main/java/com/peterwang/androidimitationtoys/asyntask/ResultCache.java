@@ -0,0 +1,174 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 任务结果缓存，按最近最少使用（LRU）淘汰，支持按权重限制总大小和写入后过期时间。
+ * 通过{@link MyAsynTask#getResultCache MyAsynTask.getResultCache}开启后，execute在提交前先查缓存，
+ * 命中时在调用线程直接回调onPostExecute，不经过任何线程池。
+ * 通常作为任务类的静态常量，同一类任务共用一个缓存
+ *
+ * @author peter_wang
+ * @create-time 26/10/20 15:30
+ */
+public final class ResultCache<K, V> {
+    /**
+     * 计算缓存项的权重，比如Bitmap的字节数
+     */
+    public interface Weigher<K, V> {
+        /**
+         * @return 权重，不能为负数
+         */
+        int weigh(K key, V value);
+    }
+
+    private final long mMaxWeight;
+    private final long mExpireNanos;
+    private final Weigher<? super K, ? super V> mWeigher;
+    /**
+     * accessOrder为true，迭代顺序即从最久未访问到最近访问
+     */
+    private final LinkedHashMap<K, Entry<V>> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private long mWeight;
+    private long mHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+
+    /**
+     * 按条数限制、不过期的缓存
+     *
+     * @param maxCount 最多缓存的条数
+     */
+    public ResultCache(int maxCount) {
+        this(maxCount, 0, TimeUnit.MILLISECONDS, null);
+    }
+
+    /**
+     * @param maxWeight      所有缓存项的权重上限
+     * @param expireDuration 写入后的过期时间，小于等于0表示不过期
+     * @param unit           时间单位
+     * @param weigher        权重计算，null表示每项权重为1
+     */
+    public ResultCache(long maxWeight, long expireDuration, TimeUnit unit, Weigher<? super K, ? super V> weigher) {
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("maxWeight <= 0");
+        }
+        mMaxWeight = maxWeight;
+        mExpireNanos = expireDuration > 0 ? unit.toNanos(expireDuration) : 0;
+        mWeigher = weigher;
+    }
+
+    /**
+     * @return 缓存的值，不存在或已过期时返回null
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = mEntries.get(key);
+        if (entry != null && mExpireNanos > 0 && System.nanoTime() - entry.mWriteNanos >= mExpireNanos) {
+            removeEntry(key, entry);
+            entry = null;
+        }
+        if (entry == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        return entry.mValue;
+    }
+
+    /**
+     * 放入缓存，null值不缓存；权重超过上限的值不缓存，并移除同key的旧值
+     */
+    public synchronized void put(K key, V value) {
+        if (key == null) {
+            throw new NullPointerException("key == null");
+        }
+        Entry<V> old = mEntries.remove(key);
+        if (old != null) {
+            mWeight -= old.mWeight;
+        }
+        if (value == null) {
+            return;
+        }
+        int weight = mWeigher != null ? mWeigher.weigh(key, value) : 1;
+        if (weight < 0) {
+            throw new IllegalStateException("negative weight: " + key + "=" + value);
+        }
+        if (weight > mMaxWeight) {
+            return;
+        }
+        mEntries.put(key, new Entry<>(value, weight, System.nanoTime()));
+        mWeight += weight;
+        trimToMaxWeight();
+    }
+
+    public synchronized void remove(K key) {
+        Entry<V> entry = mEntries.get(key);
+        if (entry != null) {
+            removeEntry(key, entry);
+        }
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        mWeight = 0;
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized long weight() {
+        return mWeight;
+    }
+
+    public synchronized long hitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long missCount() {
+        return mMissCount;
+    }
+
+    public synchronized long evictionCount() {
+        return mEvictionCount;
+    }
+
+    private void removeEntry(K key, Entry<V> entry) {
+        mEntries.remove(key);
+        mWeight -= entry.mWeight;
+    }
+
+    /**
+     * 先淘汰最久未访问的缓存项
+     */
+    private void trimToMaxWeight() {
+        Iterator<Map.Entry<K, Entry<V>>> iterator = mEntries.entrySet().iterator();
+        while (mWeight > mMaxWeight && iterator.hasNext()) {
+            Entry<V> eldest = iterator.next().getValue();
+            iterator.remove();
+            mWeight -= eldest.mWeight;
+            mEvictionCount++;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ResultCache{size=" + mEntries.size() + ", weight=" + mWeight + "/" + mMaxWeight + ", hit="
+                + mHitCount + ", miss=" + mMissCount + ", eviction=" + mEvictionCount + "}";
+    }
+
+    private static final class Entry<V> {
+        private final V mValue;
+        private final int mWeight;
+        private final long mWriteNanos;
+
+        Entry(V value, int weight, long writeNanos) {
+            mValue = value;
+            mWeight = weight;
+            mWriteNanos = writeNanos;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import android.os.Looper;
+import android.os.Message;
+
+import com.peterwang.androidimitationtoys.main.WeakReferenceHandler;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 所有任务共用的主线程结果投递器：执行完的任务先放入队列，只有队列从空变为非空时才发送一条消息，
+ * 主线程处理消息时一次性回调队列中所有任务的onPostExecute/onCancelled，任务集中完成时大幅减少主线程被唤醒的次数
+ *
+ * @author peter_wang
+ * @create-time 26/10/16 17:30
+ */
+final class ResultDispatcher {
+    private static final int MESSAGE_DRAIN = 1;
+
+    private static final class InstanceHolder {
+        private static final ResultDispatcher INSTANCE = new ResultDispatcher();
+    }
+
+    /**
+     * 可以交给主线程回调结果的任务
+     */
+    interface Deliverable {
+        /**
+         * 在主线程回调结果
+         */
+        void deliver();
+    }
+
+    private final Queue<Deliverable> mCompletedTasks = new ConcurrentLinkedQueue<>();
+    /**
+     * 是否已经发送了还未处理的消息
+     */
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean();
+    /**
+     * 主线程Handler，第一次投递时才创建，设置了mDeliveryExecutor时不会创建
+     */
+    private volatile InternalHandler mHandler;
+    /**
+     * 代替主线程执行回调的Executor，为null时投递到主线程
+     */
+    private volatile Executor mDeliveryExecutor;
+    private final Runnable mDrainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private ResultDispatcher() {
+    }
+
+    static ResultDispatcher getInstance() {
+        return InstanceHolder.INSTANCE;
+    }
+
+    /**
+     * 在任意线程调用，把执行完的任务交给主线程回调
+     */
+    void dispatch(Deliverable task) {
+        mCompletedTasks.offer(task);
+        if (mDrainScheduled.compareAndSet(false, true)) {
+            Executor deliveryExecutor = mDeliveryExecutor;
+            if (deliveryExecutor != null) {
+                deliveryExecutor.execute(mDrainRunnable);
+            } else {
+                getHandler().sendEmptyMessage(MESSAGE_DRAIN);
+            }
+        }
+    }
+
+    void setDeliveryExecutor(Executor deliveryExecutor) {
+        mDeliveryExecutor = deliveryExecutor;
+    }
+
+    private InternalHandler getHandler() {
+        InternalHandler handler = mHandler;
+        if (handler == null) {
+            synchronized (this) {
+                handler = mHandler;
+                if (handler == null) {
+                    handler = new InternalHandler(this);
+                    mHandler = handler;
+                }
+            }
+        }
+        return handler;
+    }
+
+    /**
+     * 在主线程回调队列中所有已完成任务
+     */
+    private void drain() {
+        //先清除标记再取任务，之后加入的任务会重新发送消息，不会遗漏
+        mDrainScheduled.set(false);
+        Deliverable task;
+        while ((task = mCompletedTasks.poll()) != null) {
+            task.deliver();
+        }
+    }
+
+    private static final class InternalHandler extends WeakReferenceHandler<ResultDispatcher> {
+
+        InternalHandler(ResultDispatcher dispatcher) {
+            super(Looper.getMainLooper(), dispatcher);
+        }
+
+        @Override
+        protected void handleMessage(ResultDispatcher dispatcher, Message msg) {
+            if (msg.what == MESSAGE_DRAIN) {
+                dispatcher.drain();
+            }
+        }
+    }
+}
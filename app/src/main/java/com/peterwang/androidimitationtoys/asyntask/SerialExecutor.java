@@ -0,0 +1,192 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 单一线程池，只能同时执行一个线程，顺序执行加入的线程。
+ * 无锁实现：任务放入多生产者单消费者（MPSC）链表队列，入队只需要一次CAS（getAndSet），
+ * 由原子变量mRunning保证同一时刻只有一个线程在消费队列，不再需要synchronized，
+ * 也不再给每个任务包一层调用executeNext的Runnable，自身就是提交给线程池的Runnable
+ *
+ * @author peter_wang
+ * @create-time 15/11/12 16:57
+ */
+final class SerialExecutor implements Executor, Runnable {
+    /**
+     * 实际执行任务的线程池
+     */
+    private final Executor mTargetExecutor;
+    /**
+     * 队尾，所有提交线程通过getAndSet竞争
+     */
+    private final AtomicReference<Node> mTail;
+    /**
+     * 队头（哨兵节点），只有持有mRunning的线程才会访问，mRunning的读写保证了它在线程间的可见性
+     */
+    private Node mHead;
+    /**
+     * 是否已经有任务提交到线程池中执行，保证同一时刻只有一个任务在执行
+     */
+    private final AtomicBoolean mRunning = new AtomicBoolean();
+
+    SerialExecutor(Executor targetExecutor) {
+        mTargetExecutor = targetExecutor;
+        mHead = new Node(null);
+        mTail = new AtomicReference<>(mHead);
+    }
+
+    @Override
+    public void execute(Runnable runnable) {
+        if (runnable == null) {
+            throw new NullPointerException();
+        }
+        //先把线程放入队列，先进先出，单向执行，执行完一个再调度下一个
+        Node node = new Node(runnable);
+        Node prev = mTail.getAndSet(node);
+        prev.mNext = node;
+
+        scheduleNext(Collections.singletonList(runnable));
+    }
+
+    /**
+     * 批量提交：先在本地把所有任务串成链表，再一次getAndSet接到队尾，整批任务只竞争一次队尾
+     */
+    void executeAll(List<? extends Runnable> runnables) {
+        Node first = null;
+        Node last = null;
+        for (Runnable runnable : runnables) {
+            if (runnable == null) {
+                throw new NullPointerException();
+            }
+            Node node = new Node(runnable);
+            if (first == null) {
+                first = node;
+            } else {
+                last.mNext = node;
+            }
+            last = node;
+        }
+        if (first == null) {
+            return;
+        }
+        Node prev = mTail.getAndSet(last);
+        prev.mNext = first;
+
+        scheduleNext(runnables);
+    }
+
+    @Override
+    public void run() {
+        Runnable runnable = pollLive();
+        try {
+            if (runnable != null) {
+                runnable.run();
+            }
+        } finally {
+            //释放执行权之后再检查队列，避免释放前后入队的任务没有线程去执行
+            mRunning.set(false);
+            if (!isEmpty()) {
+                try {
+                    scheduleNext(Collections.<Runnable>emptyList());
+                } catch (RejectedExecutionException e) {
+                    //在工作线程中没有调用者可以接收异常，排队的任务已经在scheduleNext中取消
+                }
+            }
+        }
+    }
+
+    /**
+     * 未执行任何线程时，抢到执行权的线程负责把自身提交到线程池执行下一个任务
+     *
+     * @param submitted 本次调用提交的任务，被拒绝时撤回并由调用者收到异常
+     */
+    private void scheduleNext(Collection<? extends Runnable> submitted) {
+        if (mRunning.compareAndSet(false, true)) {
+            try {
+                mTargetExecutor.execute(this);
+            } catch (RejectedExecutionException e) {
+                abort(submitted);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 线程池拒绝执行时清空队列：无锁队列不能从中间删除，本次提交的任务直接丢弃，
+     * 其他线程之前提交的任务已经返回给了调用者，取消它们让提交者收到取消回调，不会留在队列中等下一次提交才执行。
+     * 持有执行权时调用，释放后又有任务入队时继续清空
+     */
+    private void abort(Collection<? extends Runnable> submitted) {
+        do {
+            Runnable runnable;
+            while ((runnable = poll()) != null) {
+                if (runnable instanceof Future && !containsIdentity(submitted, runnable)) {
+                    ((Future<?>) runnable).cancel(false);
+                }
+            }
+            mRunning.set(false);
+        } while (!isEmpty() && mRunning.compareAndSet(false, true));
+    }
+
+    private static boolean containsIdentity(Collection<? extends Runnable> runnables, Runnable runnable) {
+        for (Runnable r : runnables) {
+            if (r == runnable) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isEmpty() {
+        return mTail.get() == mHead;
+    }
+
+    /**
+     * 取出下一个还需要执行的任务。无锁队列不能从中间删除，排队时已经被取消的FutureTask在这里直接丢弃，
+     * 不再为它占用一次线程池的执行
+     */
+    private Runnable pollLive() {
+        Runnable runnable;
+        do {
+            runnable = poll();
+        } while (runnable instanceof Future && ((Future<?>) runnable).isCancelled());
+        return runnable;
+    }
+
+    /**
+     * 取出队头任务，只有持有mRunning的线程会调用
+     */
+    private Runnable poll() {
+        Node head = mHead;
+        Node next = head.mNext;
+        if (next == null) {
+            if (mTail.get() == head) {
+                return null;
+            }
+            //提交线程已经交换了队尾但还没来得及链接mNext，短暂等待它完成
+            while ((next = head.mNext) == null) {
+                Thread.yield();
+            }
+        }
+        Runnable runnable = next.mRunnable;
+        next.mRunnable = null;
+        mHead = next;
+        return runnable;
+    }
+
+    private static final class Node {
+        private Runnable mRunnable;
+        private volatile Node mNext;
+
+        Node(Runnable runnable) {
+            mRunnable = runnable;
+        }
+    }
+}
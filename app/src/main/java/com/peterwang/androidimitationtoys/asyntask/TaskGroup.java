@@ -0,0 +1,414 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 任务组：把一批MyAsynTask并发执行（fan-out），按指定方式汇总结果（fan-in），只在主线程回调一次。
+ * 汇总方式见{@link #all all}、{@link #any any}、{@link #first first}、{@link #reduce reduce}；
+ * 组结束（得到结果、某个任务失败或调用{@link #cancel cancel}）时取消其余还在排队或执行的任务，
+ * 不必再在各个onPostExecute里手写计数器。
+ * 每个任务仍然按自己的设置（执行器、优先级、任务类型）执行，仍然会回调各自的onPostExecute/onCancelled
+ *
+ * @author peter_wang
+ * @create-time 26/10/19 15:10
+ */
+public final class TaskGroup<Result, GroupResult> {
+
+    /**
+     * 组结束回调，在主线程调用，两个方法只会回调其中一个，且只回调一次
+     */
+    public interface OnGroupCompleteListener<GroupResult> {
+        /**
+         * @param result 汇总结果
+         */
+        void onGroupComplete(GroupResult result);
+
+        /**
+         * @param error 导致组失败的任务异常；组被取消或需要的任务被外部取消时为CancellationException
+         */
+        void onGroupFailed(Throwable error);
+    }
+
+    /**
+     * 累加函数，在工作线程中按任务完成的顺序逐个调用，同一时间只有一个线程调用；抛出异常时组以该异常失败
+     */
+    public interface Reducer<Accumulator, Result> {
+        Accumulator reduce(Accumulator accumulator, Result result);
+    }
+
+    private final Aggregator<Result> mAggregator;
+    private final OnGroupCompleteListener<? super GroupResult> mListener;
+    /**
+     * 为true时任意任务失败组就失败，否则只有剩下的任务不够得到结果时才失败
+     */
+    private final boolean mFailFast;
+    private final List<Member<?>> mMembers = new ArrayList<>();
+
+    /**
+     * 以下状态都由this加锁保护
+     */
+    private boolean mExecuted;
+    private boolean mFinished;
+    private int mSuccessCount;
+    private int mFailureCount;
+    private Throwable mLastError;
+
+    private TaskGroup(Aggregator<Result> aggregator, boolean failFast,
+                      OnGroupCompleteListener<? super GroupResult> listener) {
+        if (listener == null) {
+            throw new NullPointerException("listener == null");
+        }
+        mAggregator = aggregator;
+        mFailFast = failFast;
+        mListener = listener;
+    }
+
+    /**
+     * 等待所有任务完成，结果按加入顺序排列；任意任务失败时组失败
+     */
+    public static <Result> TaskGroup<Result, List<Result>> all(
+            OnGroupCompleteListener<? super List<Result>> listener) {
+        return new TaskGroup<>(new AllAggregator<Result>(), true, listener);
+    }
+
+    /**
+     * 取最先成功的任务结果，其余任务取消；所有任务都失败时组失败
+     */
+    public static <Result> TaskGroup<Result, Result> any(OnGroupCompleteListener<? super Result> listener) {
+        return new TaskGroup<>(new FirstAggregator<Result>(1, true), false, listener);
+    }
+
+    /**
+     * 取最先成功的count个任务结果，按完成顺序排列，其余任务取消；剩下的任务不够count个成功时组失败
+     */
+    public static <Result> TaskGroup<Result, List<Result>> first(
+            int count, OnGroupCompleteListener<? super List<Result>> listener) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count < 0");
+        }
+        return new TaskGroup<>(new FirstAggregator<Result>(count, false), false, listener);
+    }
+
+    /**
+     * 所有任务的结果按完成顺序累加，任意任务失败时组失败
+     *
+     * @param initial 初始值
+     * @param reducer 累加函数
+     */
+    public static <Result, Accumulator> TaskGroup<Result, Accumulator> reduce(
+            Accumulator initial, Reducer<Accumulator, ? super Result> reducer,
+            OnGroupCompleteListener<? super Accumulator> listener) {
+        if (reducer == null) {
+            throw new NullPointerException("reducer == null");
+        }
+        return new TaskGroup<>(new ReduceAggregator<Result, Accumulator>(initial, reducer), true, listener);
+    }
+
+    /**
+     * 加入一个还未执行的任务，需要在{@link #execute execute}之前调用
+     *
+     * @param task   任务
+     * @param params 任务的执行参数
+     */
+    public final <Params> TaskGroup<Result, GroupResult> add(MyAsynTask<Params, ? extends Result> task,
+                                                             Params... params) {
+        if (task == null) {
+            throw new NullPointerException("task == null");
+        }
+        if (task.getStatus() != MyAsynTask.Status.PENDING) {
+            throw new IllegalStateException("the task has been executed.");
+        }
+        synchronized (this) {
+            if (mExecuted) {
+                throw new IllegalStateException("the group has been executed.");
+            }
+            mMembers.add(new Member<>(mMembers.size(), task, params));
+        }
+        return this;
+    }
+
+    /**
+     * 执行组内所有任务，在主线程调用（会回调各个任务的onPreExecute）。
+     * 没有任务时按汇总方式直接结束，比如all得到空列表，any失败
+     */
+    public void execute() {
+        boolean finished;
+        synchronized (this) {
+            if (mExecuted) {
+                throw new IllegalStateException("the group has been executed.");
+            }
+            mExecuted = true;
+            mAggregator.init(mMembers.size());
+            finished = checkFinished();
+        }
+        if (finished) {
+            finishGroup();
+            return;
+        }
+        for (Member<?> member : mMembers) {
+            //前面的任务已经让组结束时，后面的任务不再执行
+            if (isFinished()) {
+                break;
+            }
+            member.execute();
+        }
+    }
+
+    /**
+     * 取消整个组，组内任务全部取消，回调{@link OnGroupCompleteListener#onGroupFailed onGroupFailed}
+     *
+     * @return 组是否因此结束，已经结束的组返回false
+     */
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        CancellationException error = new CancellationException("the group is cancelled.");
+        synchronized (this) {
+            if (mFinished) {
+                return false;
+            }
+            mFinished = true;
+            mLastError = error;
+        }
+        cancelMembers(mayInterruptIfRunning);
+        dispatchResult(null, error);
+        return true;
+    }
+
+    public synchronized boolean isFinished() {
+        return mFinished;
+    }
+
+    private void onMemberComplete(int index, Result result, Throwable error, boolean cancelled) {
+        synchronized (this) {
+            if (mFinished) {
+                return;
+            }
+            if (error == null && !cancelled) {
+                try {
+                    mAggregator.accept(index, result);
+                    mSuccessCount++;
+                } catch (RuntimeException e) {
+                    //汇总失败时组直接失败，否则异常被任务的完成回调吞掉，组永远不会结束
+                    mFinished = true;
+                    mLastError = e;
+                }
+            } else {
+                mFailureCount++;
+                mLastError = error != null ? error : new CancellationException("a task in the group is cancelled.");
+            }
+            if (!mFinished && !checkFinished()) {
+                return;
+            }
+        }
+        finishGroup();
+    }
+
+    /**
+     * 持有this锁时调用。还没执行的任务按可能成功计算，execute逐个提交任务的过程中同样可以判断
+     *
+     * @return 组是否在这次检查中结束
+     */
+    private boolean checkFinished() {
+        int requiredCount = mAggregator.requiredCount();
+        if (mFailFast && mFailureCount > 0) {
+            mFinished = true;
+        } else if (mSuccessCount >= requiredCount) {
+            mFinished = true;
+            mLastError = null;
+        } else if (mMembers.size() - mFailureCount < requiredCount) {
+            mFinished = true;
+            if (mLastError == null) {
+                mLastError = new IllegalStateException("only " + (mMembers.size() - mFailureCount) + " of "
+                        + requiredCount + " required tasks can succeed.");
+            }
+        }
+        return mFinished;
+    }
+
+    /**
+     * 不能在持有this锁时调用：取消任务会在当前线程同步回调onMemberComplete
+     */
+    private void finishGroup() {
+        Object result;
+        Throwable error;
+        synchronized (this) {
+            error = mLastError;
+            result = error == null ? mAggregator.result() : null;
+        }
+        cancelMembers(true);
+        dispatchResult(result, error);
+    }
+
+    /**
+     * 只取消还没有结束的任务，已经成功的任务仍然回调onPostExecute
+     */
+    private void cancelMembers(boolean mayInterruptIfRunning) {
+        for (Member<?> member : mMembers) {
+            if (!member.mTask.isDone()) {
+                member.mTask.cancel(mayInterruptIfRunning);
+            }
+        }
+    }
+
+    /**
+     * 经过ResultDispatcher回调，排在组内任务各自的onPostExecute之后
+     */
+    private void dispatchResult(final Object result, final Throwable error) {
+        ResultDispatcher.getInstance().dispatch(new ResultDispatcher.Deliverable() {
+            @SuppressWarnings("unchecked")
+            @Override
+            public void deliver() {
+                if (error != null) {
+                    mListener.onGroupFailed(error);
+                } else {
+                    mListener.onGroupComplete((GroupResult) result);
+                }
+            }
+        });
+    }
+
+    /**
+     * 组内的一个任务
+     */
+    private final class Member<Params> implements MyAsynTask.CompletionListener<Result> {
+        private final int mIndex;
+        private final MyAsynTask<Params, ? extends Result> mTask;
+        private final Params[] mParams;
+        /**
+         * 被拒绝的合并任务已经在execute中回调过onComplete，只汇报一次
+         */
+        private final AtomicBoolean mReported = new AtomicBoolean();
+
+        Member(int index, MyAsynTask<Params, ? extends Result> task, Params[] params) {
+            mIndex = index;
+            mTask = task;
+            mParams = params;
+        }
+
+        @SuppressWarnings("unchecked")
+        void execute() {
+            ((MyAsynTask<Params, Result>) mTask).addCompletionListener(this);
+            try {
+                mTask.execute(mParams);
+            } catch (RejectedExecutionException e) {
+                //任务没有进入队列，不会再结束，直接按失败处理
+                onComplete(null, e, false);
+            }
+        }
+
+        @Override
+        public void onComplete(Result result, Throwable error, boolean cancelled) {
+            if (mReported.compareAndSet(false, true)) {
+                onMemberComplete(mIndex, result, error, cancelled);
+            }
+        }
+    }
+
+    /**
+     * 结果汇总方式，所有方法都在TaskGroup的锁内调用
+     */
+    private static abstract class Aggregator<Result> {
+        void init(int memberCount) {
+        }
+
+        /**
+         * @return 组需要的成功任务数
+         */
+        abstract int requiredCount();
+
+        abstract void accept(int index, Result result);
+
+        abstract Object result();
+    }
+
+    private static final class AllAggregator<Result> extends Aggregator<Result> {
+        private Object[] mResults;
+
+        @Override
+        void init(int memberCount) {
+            mResults = new Object[memberCount];
+        }
+
+        @Override
+        int requiredCount() {
+            return mResults.length;
+        }
+
+        @Override
+        void accept(int index, Result result) {
+            mResults[index] = result;
+        }
+
+        @Override
+        Object result() {
+            return Collections.unmodifiableList(Arrays.asList(mResults));
+        }
+    }
+
+    private static final class FirstAggregator<Result> extends Aggregator<Result> {
+        private final int mCount;
+        /**
+         * 为true时结果为第一个任务结果本身，否则为结果列表
+         */
+        private final boolean mSingle;
+        private final List<Result> mResults = new ArrayList<>();
+
+        FirstAggregator(int count, boolean single) {
+            mCount = count;
+            mSingle = single;
+        }
+
+        @Override
+        int requiredCount() {
+            return mCount;
+        }
+
+        @Override
+        void accept(int index, Result result) {
+            if (mResults.size() < mCount) {
+                mResults.add(result);
+            }
+        }
+
+        @Override
+        Object result() {
+            return mSingle ? mResults.get(0) : Collections.unmodifiableList(mResults);
+        }
+    }
+
+    private static final class ReduceAggregator<Result, Accumulator> extends Aggregator<Result> {
+        private final Reducer<Accumulator, ? super Result> mReducer;
+        private Accumulator mAccumulator;
+        private int mMemberCount;
+
+        ReduceAggregator(Accumulator initial, Reducer<Accumulator, ? super Result> reducer) {
+            mAccumulator = initial;
+            mReducer = reducer;
+        }
+
+        @Override
+        void init(int memberCount) {
+            mMemberCount = memberCount;
+        }
+
+        @Override
+        int requiredCount() {
+            return mMemberCount;
+        }
+
+        @Override
+        void accept(int index, Result result) {
+            mAccumulator = mReducer.reduce(mAccumulator, result);
+        }
+
+        @Override
+        Object result() {
+            return mAccumulator;
+        }
+    }
+}
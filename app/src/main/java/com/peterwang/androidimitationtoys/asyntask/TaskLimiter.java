@@ -0,0 +1,397 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 限制任务提交频率：拖动、滚动这类每秒触发几十上百次的事件里，多余的提交在进入执行器队列之前就被丢弃或合并。
+ * 限制方式见{@link #debounce debounce}、{@link #throttle throttle}、{@link #rateLimit rateLimit}；
+ * MyAsynTask只能执行一次，每次真正执行时由{@link TaskFactory}创建新任务。
+ * 和execute一样在主线程调用{@link #submit submit}，延后的执行也在主线程（经过ResultDispatcher）回调onPreExecute
+ *
+ * @author peter_wang
+ * @create-time 26/10/20 20:30
+ */
+public final class TaskLimiter<Params> {
+
+    /**
+     * 创建新任务，每次真正执行时调用一次
+     */
+    public interface TaskFactory<Params> {
+        MyAsynTask<Params, ?> newTask();
+    }
+
+    /**
+     * 时间来源，测试时可以替换成手动推进的时钟
+     */
+    interface Clock {
+        Clock SYSTEM = new Clock() {
+            @Override
+            public long nanoTime() {
+                return System.nanoTime();
+            }
+        };
+
+        long nanoTime();
+    }
+
+    private final TaskFactory<Params> mFactory;
+    private final Limit mLimit;
+
+    /**
+     * 以下状态都由this加锁保护
+     */
+    private Clock mClock = Clock.SYSTEM;
+    private boolean mHasPending;
+    private Params[] mPendingParams;
+    private ScheduledFuture<?> mPendingFuture;
+    /**
+     * 每次重新安排延后执行时加1，过期的延后执行据此忽略
+     */
+    private long mScheduleId;
+    private long mSubmitCount;
+    private long mExecuteCount;
+    private long mDropCount;
+
+    private TaskLimiter(TaskFactory<Params> factory, Limit limit) {
+        if (factory == null) {
+            throw new NullPointerException("factory == null");
+        }
+        mFactory = factory;
+        mLimit = limit;
+    }
+
+    /**
+     * 防抖：连续提交时只在最后一次提交后安静delay时间才执行一次，参数取最后一次提交的参数。
+     * 适合拖动结束后再加载的场景
+     */
+    public static <Params> TaskLimiter<Params> debounce(TaskFactory<Params> factory, long delay, TimeUnit unit) {
+        return new TaskLimiter<>(factory, new DebounceLimit(toPositiveNanos(delay, unit)));
+    }
+
+    /**
+     * 节流：每个interval内最多执行一次。窗口外的提交立即执行，窗口内的提交合并成一次，
+     * 在窗口结束时按最后一次提交的参数执行，拖动过程中保持固定频率刷新，也不会丢掉最后的位置
+     */
+    public static <Params> TaskLimiter<Params> throttle(TaskFactory<Params> factory, long interval, TimeUnit unit) {
+        return new TaskLimiter<>(factory, new ThrottleLimit(toPositiveNanos(interval, unit)));
+    }
+
+    /**
+     * 令牌桶限流：令牌按permitsPerSecond的速度补充，最多积攒burst个；有令牌时立即执行，没有时直接丢弃，
+     * 允许短时间的突发，长期平均不超过permitsPerSecond
+     */
+    public static <Params> TaskLimiter<Params> rateLimit(TaskFactory<Params> factory, double permitsPerSecond,
+                                                         int burst) {
+        if (!(permitsPerSecond > 0)) {
+            throw new IllegalArgumentException("permitsPerSecond <= 0");
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("burst < 1");
+        }
+        return new TaskLimiter<>(factory, new TokenBucketLimit(permitsPerSecond, burst));
+    }
+
+    private static long toPositiveNanos(long duration, TimeUnit unit) {
+        if (duration <= 0) {
+            throw new IllegalArgumentException("duration <= 0");
+        }
+        return unit.toNanos(duration);
+    }
+
+    /**
+     * 提交一次执行，在主线程调用
+     *
+     * @return 立即执行返回true；延后执行（之后还可能被新的提交合并）或被丢弃返回false
+     * @throws RejectedExecutionException 立即执行时执行器拒绝了任务，这次提交按丢弃计算
+     */
+    public boolean submit(Params... params) {
+        boolean executeNow;
+        synchronized (this) {
+            mSubmitCount++;
+            long now = mClock.nanoTime();
+            long delayNanos = mLimit.acquire(now, mHasPending);
+            if (delayNanos == Limit.DROP) {
+                mDropCount++;
+                return false;
+            }
+            executeNow = delayNanos == 0;
+            if (executeNow) {
+                mExecuteCount++;
+            } else {
+                if (mHasPending) {
+                    //合并到下一次执行，之前等待的参数作废
+                    mDropCount++;
+                }
+                mHasPending = true;
+                //延后执行前调用者可能修改传入的数组；clone保留原来的数组类型
+                mPendingParams = params != null ? params.clone() : null;
+                if (mPendingFuture == null || mLimit.reschedulesOnSubmit()) {
+                    schedulePending(delayNanos);
+                }
+            }
+        }
+        if (executeNow) {
+            try {
+                mFactory.newTask().execute(params);
+            } catch (RejectedExecutionException e) {
+                onRejected();
+                throw e;
+            }
+        }
+        return executeNow;
+    }
+
+    /**
+     * 取消等待中的延后执行，已经开始执行的任务不受影响
+     *
+     * @return 是否有等待中的执行被取消
+     */
+    public boolean cancelPending() {
+        synchronized (this) {
+            if (!mHasPending) {
+                return false;
+            }
+            clearPending();
+            mDropCount++;
+            return true;
+        }
+    }
+
+    /**
+     * @return 是否有等待中的延后执行
+     */
+    public synchronized boolean hasPending() {
+        return mHasPending;
+    }
+
+    public synchronized long submitCount() {
+        return mSubmitCount;
+    }
+
+    /**
+     * @return 真正创建并执行的任务数
+     */
+    public synchronized long executeCount() {
+        return mExecuteCount;
+    }
+
+    /**
+     * @return 被丢弃或合并掉的提交数
+     */
+    public synchronized long dropCount() {
+        return mDropCount;
+    }
+
+    /**
+     * 设置时间来源，只在测试中使用
+     */
+    synchronized void setClock(Clock clock) {
+        if (clock == null) {
+            throw new NullPointerException("clock == null");
+        }
+        mClock = clock;
+    }
+
+    /**
+     * 持有this锁时调用
+     */
+    private void schedulePending(long delayNanos) {
+        if (mPendingFuture != null) {
+            mPendingFuture.cancel(false);
+        }
+        final long scheduleId = ++mScheduleId;
+        mPendingFuture = TimeoutScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                //超时线程只做转发，onPreExecute需要在主线程回调
+                ResultDispatcher.getInstance().dispatch(new ResultDispatcher.Deliverable() {
+                    @Override
+                    public void deliver() {
+                        executePending(scheduleId);
+                    }
+                });
+            }
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 持有this锁时调用
+     */
+    private void clearPending() {
+        if (mPendingFuture != null) {
+            mPendingFuture.cancel(false);
+            mPendingFuture = null;
+        }
+        mHasPending = false;
+        mPendingParams = null;
+        mScheduleId++;
+    }
+
+    private void executePending(long scheduleId) {
+        Params[] params;
+        synchronized (this) {
+            if (scheduleId != mScheduleId || !mHasPending) {
+                return;
+            }
+            params = mPendingParams;
+            mPendingFuture = null;
+            mHasPending = false;
+            mPendingParams = null;
+            mLimit.onExecute(mClock.nanoTime());
+            mExecuteCount++;
+        }
+        try {
+            mFactory.newTask().execute(params);
+        } catch (RejectedExecutionException e) {
+            //在主线程的回调里，没有调用者可以处理，按丢弃计算
+            onRejected();
+        }
+    }
+
+    /**
+     * 执行器拒绝了任务：这次执行没有发生，按丢弃计算
+     */
+    private synchronized void onRejected() {
+        mExecuteCount--;
+        mDropCount++;
+        mLimit.onRejected();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TaskLimiter{" + mLimit + ", submit=" + mSubmitCount + ", execute=" + mExecuteCount + ", drop="
+                + mDropCount + ", pending=" + mHasPending + "}";
+    }
+
+    /**
+     * 限制方式，所有方法都在TaskLimiter的锁内调用
+     */
+    private static abstract class Limit {
+        static final long DROP = -1;
+
+        /**
+         * @param now        当前时间
+         * @param hasPending 是否已经有等待中的延后执行
+         * @return 0表示立即执行，DROP表示丢弃，正数表示延后多少纳秒执行
+         */
+        abstract long acquire(long now, boolean hasPending);
+
+        /**
+         * @return 每次延后提交是否都重新计时
+         */
+        boolean reschedulesOnSubmit() {
+            return false;
+        }
+
+        /**
+         * 延后的执行真正执行时调用
+         */
+        void onExecute(long now) {
+        }
+
+        /**
+         * 执行时被执行器拒绝后调用
+         */
+        void onRejected() {
+        }
+    }
+
+    private static final class DebounceLimit extends Limit {
+        private final long mDelayNanos;
+
+        DebounceLimit(long delayNanos) {
+            mDelayNanos = delayNanos;
+        }
+
+        @Override
+        long acquire(long now, boolean hasPending) {
+            return mDelayNanos;
+        }
+
+        @Override
+        boolean reschedulesOnSubmit() {
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "debounce " + TimeUnit.NANOSECONDS.toMillis(mDelayNanos) + "ms";
+        }
+    }
+
+    private static final class ThrottleLimit extends Limit {
+        private final long mIntervalNanos;
+        private boolean mStarted;
+        /**
+         * 上一次执行的时间
+         */
+        private long mLastExecuteNanos;
+
+        ThrottleLimit(long intervalNanos) {
+            mIntervalNanos = intervalNanos;
+        }
+
+        @Override
+        long acquire(long now, boolean hasPending) {
+            long elapsed = now - mLastExecuteNanos;
+            if (!hasPending && (!mStarted || elapsed >= mIntervalNanos)) {
+                mStarted = true;
+                mLastExecuteNanos = now;
+                return 0;
+            }
+            return Math.max(1, mIntervalNanos - elapsed);
+        }
+
+        @Override
+        void onExecute(long now) {
+            mLastExecuteNanos = now;
+        }
+
+        @Override
+        public String toString() {
+            return "throttle " + TimeUnit.NANOSECONDS.toMillis(mIntervalNanos) + "ms";
+        }
+    }
+
+    private static final class TokenBucketLimit extends Limit {
+        private final double mPermitsPerNano;
+        private final int mBurst;
+        private boolean mStarted;
+        private double mTokens;
+        private long mLastRefillNanos;
+
+        TokenBucketLimit(double permitsPerSecond, int burst) {
+            mPermitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+            mBurst = burst;
+            mTokens = burst;
+        }
+
+        @Override
+        long acquire(long now, boolean hasPending) {
+            //第一次提交时桶是满的，从此开始计算补充的令牌
+            if (mStarted) {
+                mTokens = Math.min(mBurst, mTokens + (now - mLastRefillNanos) * mPermitsPerNano);
+            }
+            mStarted = true;
+            mLastRefillNanos = now;
+            if (mTokens < 1) {
+                return DROP;
+            }
+            mTokens -= 1;
+            return 0;
+        }
+
+        @Override
+        void onRejected() {
+            //没有执行，退回令牌
+            mTokens = Math.min(mBurst, mTokens + 1);
+        }
+
+        @Override
+        public String toString() {
+            return "rateLimit " + mPermitsPerNano * TimeUnit.SECONDS.toNanos(1) + "/s, burst " + mBurst;
+        }
+    }
+}
@@ -0,0 +1,498 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 任务的一个执行阶段，通过{@link MyAsynTask#asStage MyAsynTask.asStage}得到第一个阶段，
+ * 再用{@link #thenApply thenApply}/{@link #thenCompose thenCompose}串联后续阶段。
+ * 前一阶段结束后，后续阶段直接提交到工作线程池（或指定的执行器）执行，不再像在onPostExecute里启动下一个任务那样
+ * 每一步都经过主线程；只有最后调用{@link #whenComplete whenComplete}注册的回调在主线程执行。
+ * 某一阶段失败或被取消时，之后的阶段不再执行，都以同样的异常结束。
+ * 阶段本身也是{@link Future}，并提供与ListenableFuture相同的{@link #addListener addListener}，
+ * 可以交给其他异步代码组合；反方向可以用{@link #create create}把基于回调的异步接口包装成阶段
+ *
+ * @author peter_wang
+ * @create-time 26/10/19 17:20
+ */
+public final class TaskStage<T> implements Future<T> {
+    private static final String TAG = TaskStage.class.getSimpleName();
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_SUCCEEDED = 1;
+    private static final int STATE_FAILED = 2;
+
+    /**
+     * 阶段函数，在工作线程中执行
+     */
+    public interface Function<T, R> {
+        R apply(T t) throws Exception;
+    }
+
+    /**
+     * 两个参数的阶段函数，在工作线程中执行
+     */
+    public interface BiFunction<T, U, R> {
+        R apply(T t, U u) throws Exception;
+    }
+
+    /**
+     * 阶段结束回调，在主线程调用，两个方法只会回调其中一个
+     */
+    public interface OnStageCompleteListener<T> {
+        void onSuccess(T result);
+
+        /**
+         * @param error 阶段函数或任务抛出的异常，被取消时为CancellationException
+         */
+        void onFailure(Throwable error);
+    }
+
+    /**
+     * 以下状态由this加锁保护，结束后不再改变
+     */
+    private int mState = STATE_PENDING;
+    private T mResult;
+    private Throwable mError;
+    private List<Runnable> mCallbacks;
+
+    /**
+     * 当前阶段正在执行的工作：来自任务的阶段为任务本身，thenApply/thenCompose为执行阶段函数的FutureTask，取消阶段时一起取消
+     */
+    private volatile Future<?> mSource;
+    /**
+     * 取消当前阶段时需要一起取消的阶段：thenCompose的阶段函数返回的阶段，或withTimeout的原阶段
+     */
+    private volatile TaskStage<?> mInner;
+
+    TaskStage() {
+    }
+
+    /**
+     * 创建一个由调用方结束的阶段，用于把基于回调的异步接口（比如ListenableFuture.addListener、
+     * 网络库的回调）包装成阶段，在回调中调用{@link #complete(Object) complete}或
+     * {@link #completeExceptionally completeExceptionally}，不需要占用线程等待
+     */
+    public static <T> TaskStage<T> create() {
+        return new TaskStage<>();
+    }
+
+    /**
+     * @return 已经以result结束的阶段，通常在thenCompose的阶段函数中使用
+     */
+    public static <T> TaskStage<T> completed(T result) {
+        TaskStage<T> stage = new TaskStage<>();
+        stage.complete(result, null);
+        return stage;
+    }
+
+    /**
+     * 把只能阻塞等待的Future包装成阶段：在I/O线程池中占用一个线程等待结果。
+     * 能注册回调的Future应该用{@link #create create}包装，不占用线程
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> TaskStage<T> fromFuture(final Future<? extends T> future) {
+        if (future == null) {
+            throw new NullPointerException("future == null");
+        }
+        if (future instanceof TaskStage) {
+            return (TaskStage<T>) future;
+        }
+        TaskStage<T> stage = new TaskStage<>();
+        stage.runStep(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                return future.get();
+            }
+        }, MyAsynTask.getIoExecutor());
+        //取消阶段时取消原Future，等待的线程随之结束
+        stage.mSource = future;
+        return stage;
+    }
+
+    /**
+     * 在MyAsynTask的工作线程或调用cancel的线程结束阶段
+     */
+    static <Result> TaskStage<Result> fromTask(Future<Result> source) {
+        TaskStage<Result> stage = new TaskStage<>();
+        stage.mSource = source;
+        return stage;
+    }
+
+    /**
+     * 前一阶段成功后在工作线程池中执行fn
+     */
+    public <R> TaskStage<R> thenApply(Function<? super T, ? extends R> fn) {
+        return thenApply(fn, MyAsynTask.getThreadPoolExecutor());
+    }
+
+    /**
+     * 前一阶段成功后在executor中执行fn
+     */
+    public <R> TaskStage<R> thenApply(final Function<? super T, ? extends R> fn, final Executor executor) {
+        checkArguments(fn, executor);
+        final TaskStage<R> next = new TaskStage<>();
+        addCallback(new Runnable() {
+            @Override
+            public void run() {
+                if (mError != null) {
+                    next.complete(null, mError);
+                    return;
+                }
+                next.runStep(new Callable<R>() {
+                    @Override
+                    public R call() throws Exception {
+                        return fn.apply(mResult);
+                    }
+                }, executor);
+            }
+        });
+        return next;
+    }
+
+    /**
+     * 前一阶段成功后在工作线程池中执行fn，以fn返回的阶段的结果结束
+     */
+    public <R> TaskStage<R> thenCompose(Function<? super T, ? extends TaskStage<R>> fn) {
+        return thenCompose(fn, MyAsynTask.getThreadPoolExecutor());
+    }
+
+    /**
+     * 前一阶段成功后在executor中执行fn，以fn返回的阶段的结果结束
+     */
+    public <R> TaskStage<R> thenCompose(final Function<? super T, ? extends TaskStage<R>> fn,
+                                        final Executor executor) {
+        checkArguments(fn, executor);
+        final TaskStage<R> next = new TaskStage<>();
+        addCallback(new Runnable() {
+            @Override
+            public void run() {
+                if (mError != null) {
+                    next.complete(null, mError);
+                    return;
+                }
+                next.runStep(new Callable<R>() {
+                    @Override
+                    public R call() throws Exception {
+                        TaskStage<R> inner = fn.apply(mResult);
+                        if (inner == null) {
+                            throw new NullPointerException("the compose function returned null.");
+                        }
+                        next.follow(inner);
+                        return null;
+                    }
+                }, executor);
+            }
+        });
+        return next;
+    }
+
+    /**
+     * 两个阶段都成功后在工作线程池中执行fn，任意一个失败时以其异常结束
+     */
+    public <U, R> TaskStage<R> thenCombine(final TaskStage<? extends U> other,
+                                           final BiFunction<? super T, ? super U, ? extends R> fn) {
+        if (other == null) {
+            throw new NullPointerException("other == null");
+        }
+        if (fn == null) {
+            throw new NullPointerException("fn == null");
+        }
+        return thenCompose(new Function<T, TaskStage<R>>() {
+            @Override
+            public TaskStage<R> apply(final T t) {
+                return other.thenApply(new Function<U, R>() {
+                    @Override
+                    public R apply(U u) throws Exception {
+                        return fn.apply(t, u);
+                    }
+                }, DirectExecutor.INSTANCE);
+            }
+        });
+    }
+
+    /**
+     * 返回带超时的阶段：当前阶段在超时前结束时以相同结果结束，否则以TimeoutException结束并取消当前阶段。
+     * 计时在后台线程进行，不会阻塞任何线程
+     */
+    public TaskStage<T> withTimeout(long timeout, TimeUnit unit) {
+        if (unit == null) {
+            throw new NullPointerException("unit == null");
+        }
+        final TaskStage<T> next = new TaskStage<>();
+        next.mInner = this;
+        final long timeoutMillis = unit.toMillis(timeout);
+        final ScheduledFuture<?> timer = TimeoutScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (next.complete(null, new TimeoutException("timed out after " + timeoutMillis + "ms."))) {
+                    cancel(true);
+                }
+            }
+        }, timeout, unit);
+        addCallback(new Runnable() {
+            @Override
+            public void run() {
+                timer.cancel(false);
+                next.complete(mResult, mError);
+            }
+        });
+        return next;
+    }
+
+    /**
+     * 与ListenableFuture.addListener相同：阶段结束后在executor中执行listener，已经结束时立即提交
+     */
+    public void addListener(final Runnable listener, final Executor executor) {
+        checkArguments(listener, executor);
+        addCallback(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    executor.execute(listener);
+                } catch (RejectedExecutionException e) {
+                    Log.w(TAG, "the listener is rejected by " + executor, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * 注册主线程的结束回调，可以注册多个
+     *
+     * @return 当前阶段
+     */
+    public TaskStage<T> whenComplete(final OnStageCompleteListener<? super T> listener) {
+        if (listener == null) {
+            throw new NullPointerException("listener == null");
+        }
+        addCallback(new Runnable() {
+            @Override
+            public void run() {
+                ResultDispatcher.getInstance().dispatch(new ResultDispatcher.Deliverable() {
+                    @Override
+                    public void deliver() {
+                        if (mError != null) {
+                            listener.onFailure(mError);
+                        } else {
+                            listener.onSuccess(mResult);
+                        }
+                    }
+                });
+            }
+        });
+        return this;
+    }
+
+    /**
+     * 取消当前阶段：正在执行的任务或阶段函数被取消，之后的阶段都以CancellationException结束
+     *
+     * @return 阶段是否因此结束，已经结束的阶段返回false
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        if (!complete(null, new CancellationException("the stage is cancelled."))) {
+            return false;
+        }
+        Future<?> source = mSource;
+        if (source != null) {
+            source.cancel(mayInterruptIfRunning);
+        }
+        TaskStage<?> inner = mInner;
+        if (inner != null) {
+            inner.cancel(mayInterruptIfRunning);
+        }
+        return true;
+    }
+
+    /**
+     * 以result结束由{@link #create create}创建的阶段
+     *
+     * @return 阶段是否因此结束，已经结束的阶段返回false
+     */
+    public boolean complete(T result) {
+        return complete(result, null);
+    }
+
+    /**
+     * 以error结束由{@link #create create}创建的阶段
+     *
+     * @return 阶段是否因此结束，已经结束的阶段返回false
+     */
+    public boolean completeExceptionally(Throwable error) {
+        if (error == null) {
+            throw new NullPointerException("error == null");
+        }
+        return complete(null, error);
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        synchronized (this) {
+            while (mState == STATE_PENDING) {
+                wait();
+            }
+            return report();
+        }
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this) {
+            while (mState == STATE_PENDING) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new TimeoutException();
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return report();
+        }
+    }
+
+    /**
+     * 持有this锁时调用
+     */
+    private T report() throws ExecutionException {
+        if (mError instanceof CancellationException) {
+            throw (CancellationException) mError;
+        } else if (mError != null) {
+            throw new ExecutionException(mError);
+        }
+        return mResult;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return mState != STATE_PENDING;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return mError instanceof CancellationException;
+    }
+
+    /**
+     * @return 是否由这次调用结束阶段
+     */
+    boolean complete(T result, Throwable error) {
+        List<Runnable> callbacks;
+        synchronized (this) {
+            if (mState != STATE_PENDING) {
+                return false;
+            }
+            mState = error == null ? STATE_SUCCEEDED : STATE_FAILED;
+            mResult = result;
+            mError = error;
+            callbacks = mCallbacks;
+            mCallbacks = null;
+            notifyAll();
+        }
+        if (callbacks != null) {
+            for (Runnable callback : callbacks) {
+                callback.run();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 阶段已经结束时直接在当前线程执行callback，回调中读取mResult、mError的可见性由this锁保证
+     */
+    private void addCallback(Runnable callback) {
+        synchronized (this) {
+            if (mState == STATE_PENDING) {
+                if (mCallbacks == null) {
+                    mCallbacks = new ArrayList<>(2);
+                }
+                mCallbacks.add(callback);
+                return;
+            }
+        }
+        callback.run();
+    }
+
+    private void runStep(Callable<T> step, Executor executor) {
+        FutureTask<T> future = new FutureTask<T>(step) {
+            @Override
+            protected void done() {
+                //thenCompose的阶段函数返回后还要等待内部阶段结束
+                if (mInner == null || isCancelled()) {
+                    completeFrom(this);
+                }
+            }
+        };
+        mSource = future;
+        //先设置mSource再检查状态，与cancel的顺序相反，保证并发取消时至少一方能看到对方
+        if (isDone()) {
+            future.cancel(false);
+            return;
+        }
+        try {
+            executor.execute(future);
+        } catch (RejectedExecutionException e) {
+            complete(null, e);
+        }
+    }
+
+    private void follow(final TaskStage<T> inner) {
+        mInner = inner;
+        if (isDone()) {
+            inner.cancel(true);
+            return;
+        }
+        inner.addCallback(new Runnable() {
+            @Override
+            public void run() {
+                complete(inner.mResult, inner.mError);
+            }
+        });
+    }
+
+    private void completeFrom(Future<T> future) {
+        try {
+            complete(future.get(), null);
+        } catch (CancellationException e) {
+            complete(null, e);
+        } catch (ExecutionException e) {
+            complete(null, e.getCause());
+        } catch (InterruptedException e) {
+            //done之后get不会阻塞
+            complete(null, e);
+        }
+    }
+
+    /**
+     * 在当前线程直接执行，thenCombine中另一个阶段结束后直接计算，不再提交一次线程池
+     */
+    private enum DirectExecutor implements Executor {
+        INSTANCE;
+
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    }
+
+    private static void checkArguments(Object fn, Executor executor) {
+        if (fn == null) {
+            throw new NullPointerException("fn == null");
+        }
+        if (executor == null) {
+            throw new NullPointerException("executor == null");
+        }
+    }
+}
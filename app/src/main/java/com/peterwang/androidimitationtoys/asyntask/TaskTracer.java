@@ -0,0 +1,53 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+/**
+ * 任务生命周期追踪，通过{@link MyAsynTask#setTracer MyAsynTask.setTracer}设置。
+ * 回调在发生事件的线程中同步执行，实现需要足够轻量；默认的{@link #NONE}不会被调用，也不会读取时间戳
+ *
+ * @author peter_wang
+ * @create-time 26/10/18 10:15
+ */
+public interface TaskTracer {
+    /**
+     * 不做任何追踪
+     */
+    TaskTracer NONE = new TaskTracer() {
+        @Override
+        public void trace(Event event, long taskId, String taskName, long timestampNanos) {
+        }
+    };
+
+    /**
+     * 生命周期事件，按发生顺序排列
+     */
+    enum Event {
+        /**
+         * 调用execute，状态从PENDING变为RUNNING，任务开始排队
+         */
+        EXECUTE,
+        /**
+         * 工作线程开始执行doInBackground
+         */
+        BACKGROUND_START,
+        /**
+         * doInBackground执行结束
+         */
+        BACKGROUND_END,
+        /**
+         * 主线程开始回调onPostExecute/onCancelled
+         */
+        DELIVER_START,
+        /**
+         * 回调结束，状态变为FINISHED
+         */
+        FINISH
+    }
+
+    /**
+     * @param event          事件
+     * @param taskId         任务编号，同一次执行的所有事件相同
+     * @param taskName       任务类名
+     * @param timestampNanos System.nanoTime()时间戳
+     */
+    void trace(Event event, long taskId, String taskName, long timestampNanos);
+}
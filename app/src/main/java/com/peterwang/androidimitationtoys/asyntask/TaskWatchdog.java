@@ -0,0 +1,245 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 慢任务和卡顿检测：后台线程定时检查所有已提交的任务，排队时间或执行时间超过阈值时回调{@link OnStallListener}，
+ * 执行超时的任务会附带工作线程当前的调用栈。单一线程池模式下一个很慢的doInBackground会阻塞后面所有任务，
+ * 通过执行超时的报告可以直接定位到这个任务。每个任务每种超时只报告一次。
+ * 通过{@link MyAsynTask#setWatchdog MyAsynTask.setWatchdog}启用
+ *
+ * @author peter_wang
+ * @create-time 26/10/18 14:20
+ */
+public final class TaskWatchdog {
+    private static final String TAG = TaskWatchdog.class.getSimpleName();
+
+    /**
+     * 超时回调，在检测线程中调用
+     */
+    public interface OnStallListener {
+        void onStall(StallReport report);
+    }
+
+    /**
+     * 超时类型
+     */
+    public enum StallType {
+        /**
+         * 排队时间超过阈值
+         */
+        QUEUE_WAIT,
+        /**
+         * doInBackground执行时间超过阈值
+         */
+        RUN_TIME
+    }
+
+    private final long mMaxWaitNanos;
+    private final long mMaxRunNanos;
+    private final long mCheckIntervalMillis;
+    private final OnStallListener mListener;
+    private final Set<Ticket> mTickets = Collections.newSetFromMap(new ConcurrentHashMap<Ticket, Boolean>());
+    private ScheduledExecutorService mCheckExecutor;
+
+    /**
+     * @param maxWaitMillis 排队时间阈值，小于等于0表示不检测
+     * @param maxRunMillis  执行时间阈值，小于等于0表示不检测
+     * @param listener      超时回调
+     */
+    public TaskWatchdog(long maxWaitMillis, long maxRunMillis, OnStallListener listener) {
+        if (listener == null) {
+            throw new NullPointerException("listener == null");
+        }
+        mMaxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        mMaxRunNanos = TimeUnit.MILLISECONDS.toNanos(maxRunMillis);
+        //检测间隔取较小阈值的一半，最少10ms
+        long minThreshold = Math.min(maxWaitMillis > 0 ? maxWaitMillis : Long.MAX_VALUE,
+                maxRunMillis > 0 ? maxRunMillis : Long.MAX_VALUE);
+        mCheckIntervalMillis = Math.max(10, minThreshold == Long.MAX_VALUE ? 1000 : minThreshold / 2);
+        mListener = listener;
+    }
+
+    synchronized void start() {
+        if (mCheckExecutor != null) {
+            return;
+        }
+        mCheckExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "MyAsynTask-watchdog");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mCheckExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                check();
+            }
+        }, mCheckIntervalMillis, mCheckIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized void stop() {
+        if (mCheckExecutor != null) {
+            mCheckExecutor.shutdownNow();
+            mCheckExecutor = null;
+        }
+        mTickets.clear();
+    }
+
+    /**
+     * 任务提交时调用
+     *
+     * @param taskName 任务类名
+     * @return 任务的检测记录，任务开始和结束时分别调用{@link Ticket#onStart}和{@link Ticket#onFinish}
+     */
+    Ticket onSubmit(String taskName) {
+        Ticket ticket = new Ticket(taskName, System.nanoTime());
+        mTickets.add(ticket);
+        return ticket;
+    }
+
+    private void check() {
+        long now = System.nanoTime();
+        for (Ticket ticket : mTickets) {
+            Thread runner = ticket.mRunner;
+            //检测线程可能在onFinish移除之前就取到了这条记录，已经结束的任务不再报告
+            if (ticket.mFinished) {
+                continue;
+            }
+            if (runner == null) {
+                if (mMaxWaitNanos > 0 && !ticket.mWaitReported && now - ticket.mSubmitNanos > mMaxWaitNanos) {
+                    ticket.mWaitReported = true;
+                    report(new StallReport(StallType.QUEUE_WAIT, ticket.mTaskName, now - ticket.mSubmitNanos,
+                            null, null));
+                }
+            } else if (mMaxRunNanos > 0 && !ticket.mRunReported && now - ticket.mStartNanos > mMaxRunNanos) {
+                ticket.mRunReported = true;
+                report(new StallReport(StallType.RUN_TIME, ticket.mTaskName, now - ticket.mStartNanos,
+                        runner.getName(), runner.getStackTrace()));
+            }
+        }
+    }
+
+    /**
+     * 回调抛出的异常不能传给ScheduledExecutorService，否则之后的检测都会被取消
+     */
+    private void report(StallReport report) {
+        try {
+            mListener.onStall(report);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "the stall listener failed.", e);
+        }
+    }
+
+    /**
+     * 单个任务的检测记录
+     */
+    final class Ticket {
+        private final String mTaskName;
+        private final long mSubmitNanos;
+        private volatile long mStartNanos;
+        /**
+         * 执行doInBackground的线程，为null表示还在排队
+         */
+        private volatile Thread mRunner;
+        /**
+         * 任务已经结束，检测线程可能在移除前已经取到这条记录
+         */
+        private volatile boolean mFinished;
+        /**
+         * 只在检测线程中读写
+         */
+        private boolean mWaitReported;
+        private boolean mRunReported;
+
+        private Ticket(String taskName, long submitNanos) {
+            mTaskName = taskName;
+            mSubmitNanos = submitNanos;
+        }
+
+        void onStart() {
+            mStartNanos = System.nanoTime();
+            mRunner = Thread.currentThread();
+        }
+
+        void onFinish() {
+            mFinished = true;
+            mTickets.remove(this);
+        }
+    }
+
+    /**
+     * 超时报告
+     */
+    public static final class StallReport {
+        private final StallType mType;
+        private final String mTaskName;
+        private final long mElapsedNanos;
+        private final String mThreadName;
+        private final StackTraceElement[] mStackTrace;
+
+        private StallReport(StallType type, String taskName, long elapsedNanos, String threadName,
+                            StackTraceElement[] stackTrace) {
+            mType = type;
+            mTaskName = taskName;
+            mElapsedNanos = elapsedNanos;
+            mThreadName = threadName;
+            mStackTrace = stackTrace;
+        }
+
+        public StallType getType() {
+            return mType;
+        }
+
+        public String getTaskName() {
+            return mTaskName;
+        }
+
+        /**
+         * @return 检测时已经排队或执行的时间，单位纳秒
+         */
+        public long getElapsedNanos() {
+            return mElapsedNanos;
+        }
+
+        /**
+         * @return 执行任务的线程名，排队超时为null
+         */
+        public String getThreadName() {
+            return mThreadName;
+        }
+
+        /**
+         * @return 检测时工作线程的调用栈，排队超时为null
+         */
+        public StackTraceElement[] getStackTrace() {
+            return mStackTrace;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(mType).append(' ').append(mTaskName).append(' ')
+                    .append(TimeUnit.NANOSECONDS.toMillis(mElapsedNanos)).append("ms");
+            if (mThreadName != null) {
+                builder.append(" on ").append(mThreadName);
+            }
+            if (mStackTrace != null) {
+                for (StackTraceElement element : mStackTrace) {
+                    builder.append("\n\tat ").append(element);
+                }
+            }
+            return builder.toString();
+        }
+    }
+}
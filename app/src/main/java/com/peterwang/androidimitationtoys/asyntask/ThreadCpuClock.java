@@ -0,0 +1,79 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import android.os.Debug;
+
+import java.lang.reflect.Method;
+
+/**
+ * 当前线程的CPU时间。Android上使用Debug.threadCpuTimeNanos，
+ * 在JVM上复用本包时通过反射使用ThreadMXBean（android.jar中没有java.lang.management），都不支持时返回-1。
+ * 读到0同样按不支持处理：没有实现的环境返回0，当作没有使用CPU会被误判为完全阻塞
+ *
+ * @author peter_wang
+ * @create-time 26/10/19 10:30
+ */
+final class ThreadCpuClock {
+    private static final int SOURCE_ANDROID = 0;
+    private static final int SOURCE_THREAD_MX_BEAN = 1;
+    private static final int SOURCE_NONE = 2;
+
+    private static volatile int sSource = SOURCE_ANDROID;
+    private static Object sThreadMXBean;
+    private static Method sGetCurrentThreadCpuTime;
+
+    private ThreadCpuClock() {
+    }
+
+    /**
+     * @return 当前线程已使用的CPU时间，单位纳秒，不支持时返回-1
+     */
+    static long currentThreadCpuNanos() {
+        int source = sSource;
+        if (source == SOURCE_ANDROID) {
+            try {
+                long nanos = Debug.threadCpuTimeNanos();
+                if (nanos > 0) {
+                    return nanos;
+                }
+            } catch (LinkageError | RuntimeException e) {
+                //非Android环境、只有编译用的android.jar，或者缺少native实现（UnsatisfiedLinkError）
+            }
+            source = initThreadMXBean();
+        }
+        if (source == SOURCE_THREAD_MX_BEAN) {
+            try {
+                long nanos = (Long) sGetCurrentThreadCpuTime.invoke(sThreadMXBean);
+                if (nanos > 0) {
+                    return nanos;
+                }
+            } catch (Exception | LinkageError e) {
+                sSource = SOURCE_NONE;
+            }
+        }
+        return -1;
+    }
+
+    private static synchronized int initThreadMXBean() {
+        if (sSource != SOURCE_ANDROID) {
+            return sSource;
+        }
+        int source;
+        try {
+            Class<?> factoryClass = Class.forName("java.lang.management.ManagementFactory");
+            Object threadMXBean = factoryClass.getMethod("getThreadMXBean").invoke(null);
+            Class<?> beanClass = Class.forName("java.lang.management.ThreadMXBean");
+            boolean supported = (Boolean) beanClass.getMethod("isCurrentThreadCpuTimeSupported").invoke(threadMXBean);
+            if (supported) {
+                sThreadMXBean = threadMXBean;
+                sGetCurrentThreadCpuTime = beanClass.getMethod("getCurrentThreadCpuTime");
+                source = SOURCE_THREAD_MX_BEAN;
+            } else {
+                source = SOURCE_NONE;
+            }
+        } catch (Exception | LinkageError e) {
+            source = SOURCE_NONE;
+        }
+        sSource = source;
+        return source;
+    }
+}
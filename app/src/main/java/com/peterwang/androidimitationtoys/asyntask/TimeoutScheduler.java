@@ -0,0 +1,35 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 超时检测线程，{@link MyAsynTask#executeWithTimeout executeWithTimeout}和{@link TaskStage#withTimeout
+ * TaskStage.withTimeout}共用，第一次使用时才创建。到期回调只做取消，不执行耗时操作
+ *
+ * @author peter_wang
+ * @create-time 26/10/20 10:10
+ */
+final class TimeoutScheduler {
+    private static final class SchedulerHolder {
+        private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "MyAsynTask-timeout");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    private TimeoutScheduler() {
+    }
+
+    static ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        return SchedulerHolder.SCHEDULER.schedule(command, delay, unit);
+    }
+}
@@ -0,0 +1,201 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 环形缓冲区追踪记录器：预先分配固定容量的数组，记录时只写数组不分配对象，写满后覆盖最早的事件。
+ * 可以导出为Chrome trace格式的JSON文件，用chrome://tracing或Perfetto打开：
+ * 排队阶段显示为异步区间，doInBackground显示在工作线程，onPostExecute显示在主线程；
+ * 排队时被取消、没有执行doInBackground的任务，排队区间在回调onCancelled时结束
+ *
+ * @author peter_wang
+ * @create-time 26/10/18 10:40
+ */
+public final class TraceRecorder implements TaskTracer {
+    private static final Event[] EVENTS = Event.values();
+
+    private final int mCapacity;
+    private final long[] mSequences;
+    private final int[] mEvents;
+    private final long[] mTaskIds;
+    private final String[] mTaskNames;
+    private final long[] mThreadIds;
+    private final long[] mTimestamps;
+    /**
+     * 下一个写入位置，单调递增，对容量取模得到数组下标
+     */
+    private final AtomicLong mCursor = new AtomicLong();
+    /**
+     * 导出时间戳的起点，nanoTime可能为负数，导出相对于创建记录器时的时间
+     */
+    private final long mBaseNanos = System.nanoTime();
+
+    /**
+     * @param capacity 最多保留的事件数
+     */
+    public TraceRecorder(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be > 0");
+        }
+        mCapacity = capacity;
+        mSequences = new long[capacity];
+        mEvents = new int[capacity];
+        mTaskIds = new long[capacity];
+        mTaskNames = new String[capacity];
+        mThreadIds = new long[capacity];
+        mTimestamps = new long[capacity];
+    }
+
+    @Override
+    public void trace(Event event, long taskId, String taskName, long timestampNanos) {
+        long sequence = mCursor.getAndIncrement();
+        int index = (int) (sequence % mCapacity);
+        //先作废再写入，导出时跳过正在被改写的槽位
+        mSequences[index] = -1;
+        mEvents[index] = event.ordinal();
+        mTaskIds[index] = taskId;
+        mTaskNames[index] = taskName;
+        mThreadIds[index] = Thread.currentThread().getId();
+        mTimestamps[index] = timestampNanos;
+        mSequences[index] = sequence;
+    }
+
+    /**
+     * 清空已记录的事件
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < mCapacity; i++) {
+            mSequences[i] = -1;
+        }
+    }
+
+    /**
+     * 导出为Chrome trace JSON文件
+     *
+     * @param file 目标文件
+     */
+    public void dumpChromeTrace(File file) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            writeChromeTrace(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * 按Chrome trace JSON格式输出最近的事件，记录仍在继续时导出的是近似快照
+     */
+    public synchronized void writeChromeTrace(Writer writer) throws IOException {
+        long end = mCursor.get();
+        long start = Math.max(0, end - mCapacity);
+        writer.write("{\"traceEvents\":[");
+        Set<Long> queued = new HashSet<>();
+        boolean first = true;
+        for (long sequence = start; sequence < end; sequence++) {
+            int index = (int) (sequence % mCapacity);
+            if (mSequences[index] != sequence) {
+                continue;
+            }
+            if (!first) {
+                writer.write(',');
+            }
+            first = false;
+            writeEvent(writer, queued, EVENTS[mEvents[index]], mTaskIds[index], mTaskNames[index],
+                    mThreadIds[index], Math.max(0, mTimestamps[index] - mBaseNanos));
+        }
+        writer.write("],\"displayTimeUnit\":\"ms\"}");
+        writer.flush();
+    }
+
+    /**
+     * @param queued 排队区间还未结束的任务编号
+     */
+    private static void writeEvent(Writer writer, Set<Long> queued, Event event, long taskId, String taskName,
+                                   long threadId, long timestampNanos) throws IOException {
+        String name;
+        String phase;
+        switch (event) {
+            case EXECUTE:
+                queued.add(taskId);
+                name = "queued";
+                phase = "b";
+                break;
+            case BACKGROUND_START:
+                //排队区间结束后紧接着开始doInBackground区间
+                queued.remove(taskId);
+                writeJson(writer, "queued", "e", taskId, taskName, threadId, timestampNanos);
+                writer.write(',');
+                name = "doInBackground";
+                phase = "B";
+                break;
+            case BACKGROUND_END:
+                name = "doInBackground";
+                phase = "E";
+                break;
+            case DELIVER_START:
+                if (queued.remove(taskId)) {
+                    writeJson(writer, "queued", "e", taskId, taskName, threadId, timestampNanos);
+                    writer.write(',');
+                }
+                name = "onPostExecute";
+                phase = "B";
+                break;
+            case FINISH:
+                name = "onPostExecute";
+                phase = "E";
+                break;
+            default:
+                return;
+        }
+        writeJson(writer, name, phase, taskId, taskName, threadId, timestampNanos);
+    }
+
+    private static void writeJson(Writer writer, String name, String phase, long taskId, String taskName,
+                                  long threadId, long timestampNanos) throws IOException {
+        writer.write("{\"name\":\"");
+        writer.write(name);
+        writer.write("\",\"cat\":\"");
+        writeEscaped(writer, taskName);
+        writer.write("\",\"ph\":\"");
+        writer.write(phase);
+        writer.write("\",\"id\":");
+        writer.write(Long.toString(taskId));
+        writer.write(",\"pid\":1,\"tid\":");
+        writer.write(Long.toString(threadId));
+        writer.write(",\"ts\":");
+        //Chrome trace的时间单位为微秒
+        writer.write(Long.toString(timestampNanos / 1000));
+        writer.write('.');
+        writer.write(String.format(Locale.US, "%03d", timestampNanos % 1000));
+        writer.write(",\"args\":{\"task\":\"");
+        writeEscaped(writer, taskName);
+        writer.write("\"}}");
+    }
+
+    private static void writeEscaped(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                writer.write('\\');
+                writer.write(c);
+            } else if (c < 0x20) {
+                writer.write(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                writer.write(c);
+            }
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.peterwang.androidimitationtoys.main;
 
 import android.os.Handler;
+import android.os.Looper;
 import android.os.Message;
 
 import java.lang.ref.WeakReference;
@@ -19,6 +20,11 @@ public abstract class WeakReferenceHandler<T>
         mReference = new WeakReference<T>(reference);
     }
 
+    public WeakReferenceHandler(Looper looper, T reference) {
+        super(looper);
+        mReference = new WeakReference<T>(reference);
+    }
+
     @Override
     public void handleMessage(Message msg) {
         if (mReference.get() == null)
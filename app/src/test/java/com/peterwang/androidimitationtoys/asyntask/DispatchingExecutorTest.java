@@ -0,0 +1,77 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.*;
+
+public class DispatchingExecutorTest {
+    private final List<String> mRan = new ArrayList<>();
+    private final ManualExecutor mTarget = new ManualExecutor();
+    private final LifoExecutor mExecutor = new LifoExecutor(mTarget, 1, 0);
+
+    @Test
+    public void rejectedSubmitIsRemovedFromQueue() {
+        mTarget.mReject = true;
+        try {
+            mExecutor.execute(record("rejected"));
+            fail("expected RejectedExecutionException");
+        } catch (RejectedExecutionException expected) {
+        }
+        mTarget.mReject = false;
+        mExecutor.execute(record("accepted"));
+        mTarget.runAll();
+
+        assertEquals(Collections.singletonList("accepted"), mRan);
+    }
+
+    @Test
+    public void rejectedBatchIsRemovedFromQueue() {
+        mTarget.mReject = true;
+        try {
+            mExecutor.executeAll(Arrays.asList(record("first"), record("second")));
+            fail("expected RejectedExecutionException");
+        } catch (RejectedExecutionException expected) {
+        }
+        mTarget.mReject = false;
+        mExecutor.execute(record("accepted"));
+        mTarget.runAll();
+
+        assertEquals(Collections.singletonList("accepted"), mRan);
+    }
+
+    @Test
+    public void rejectedRescheduleOnWorkerCancelsQueuedTasks() {
+        FutureTask<Void> first = record("first");
+        FutureTask<Void> second = record("second");
+        mExecutor.execute(first);
+        mExecutor.execute(second);
+
+        //执行完一个任务后重新调度被拒绝，异常不会抛出工作线程，排队的任务被取消
+        mTarget.mReject = true;
+        mTarget.runAll();
+        assertEquals(1, mRan.size());
+        assertTrue(first.isCancelled() || second.isCancelled());
+
+        mTarget.mReject = false;
+        mExecutor.execute(record("third"));
+        mTarget.runAll();
+        assertEquals(2, mRan.size());
+        assertEquals("third", mRan.get(1));
+    }
+
+    private FutureTask<Void> record(final String name) {
+        return new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+                mRan.add(name);
+            }
+        }, null);
+    }
+}
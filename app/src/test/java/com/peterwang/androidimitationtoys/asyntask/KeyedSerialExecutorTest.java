@@ -0,0 +1,168 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class KeyedSerialExecutorTest {
+    @Test
+    public void sameKeyRunsOneAtATimeInSubmitOrder() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        KeyedSerialExecutor executor = new KeyedSerialExecutor(pool);
+        final int count = 500;
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(count);
+
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            executor.execute("k", new Runnable() {
+                @Override
+                public void run() {
+                    int current = running.incrementAndGet();
+                    if (current > maxRunning.get()) {
+                        maxRunning.set(current);
+                    }
+                    order.add(index);
+                    running.decrementAndGet();
+                    latch.countDown();
+                }
+            });
+        }
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(1, maxRunning.get());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    public void differentKeysRunInParallel() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        KeyedSerialExecutor executor = new KeyedSerialExecutor(pool);
+        //两个任务都开始后才能结束，串行执行时第一个任务会一直等待
+        final CountDownLatch bothStarted = new CountDownLatch(2);
+        Callable<Boolean> waitForOther = new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                bothStarted.countDown();
+                return bothStarted.await(5, TimeUnit.SECONDS);
+            }
+        };
+        FutureTask<Boolean> first = new FutureTask<>(waitForOther);
+        FutureTask<Boolean> second = new FutureTask<>(waitForOther);
+        executor.execute("a", first);
+        executor.execute("b", second);
+
+        assertTrue(first.get(10, TimeUnit.SECONDS));
+        assertTrue(second.get(10, TimeUnit.SECONDS));
+        pool.shutdown();
+    }
+
+    @Test
+    public void rejectedSubmitCancelsTasksQueuedMeanwhile() throws Exception {
+        final ExecutorService pool = Executors.newSingleThreadExecutor();
+        final AtomicInteger submitCount = new AtomicInteger();
+        final FutureTask<String> queuedMeanwhile = newTask("queued meanwhile");
+        final KeyedSerialExecutor[] holder = new KeyedSerialExecutor[1];
+        //第一次提交被拒绝之前，另一个任务在mRunning为true时加入了同一个key
+        Executor target = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                if (submitCount.incrementAndGet() == 1) {
+                    holder[0].execute("k", queuedMeanwhile);
+                    throw new RejectedExecutionException();
+                }
+                pool.execute(command);
+            }
+        };
+        KeyedSerialExecutor executor = new KeyedSerialExecutor(target);
+        holder[0] = executor;
+        FutureTask<String> rejected = newTask("rejected");
+        try {
+            executor.execute("k", rejected);
+            fail("expected RejectedExecutionException");
+        } catch (RejectedExecutionException expected) {
+        }
+
+        assertTrue(queuedMeanwhile.isCancelled());
+        assertFalse(rejected.isDone());
+        FutureTask<String> next = newTask("next");
+        executor.execute("k", next);
+        assertEquals("next", next.get(5, TimeUnit.SECONDS));
+        assertFalse(rejected.isDone());
+        pool.shutdown();
+    }
+
+    @Test
+    public void rejectedRescheduleCancelsQueuedTasksAndKeyKeepsWorking() throws Exception {
+        final ExecutorService pool = Executors.newSingleThreadExecutor();
+        final AtomicInteger submitCount = new AtomicInteger();
+        //第二次提交（第一个任务执行完后调度下一个）被拒绝
+        Executor target = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                if (submitCount.incrementAndGet() == 2) {
+                    throw new RejectedExecutionException();
+                }
+                pool.execute(command);
+            }
+        };
+        KeyedSerialExecutor executor = new KeyedSerialExecutor(target);
+        final CountDownLatch gate = new CountDownLatch(1);
+        FutureTask<String> first = new FutureTask<>(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                gate.await();
+                return "first";
+            }
+        });
+        FutureTask<String> second = newTask("second");
+        FutureTask<String> third = newTask("third");
+        executor.execute("k", first);
+        executor.execute("k", second);
+        executor.execute("k", third);
+        gate.countDown();
+
+        assertEquals("first", first.get(5, TimeUnit.SECONDS));
+        assertTrue(waitCancelled(second) && waitCancelled(third));
+
+        FutureTask<String> fourth = newTask("fourth");
+        executor.execute("k", fourth);
+        assertEquals("fourth", fourth.get(5, TimeUnit.SECONDS));
+        pool.shutdown();
+    }
+
+    private static FutureTask<String> newTask(final String result) {
+        return new FutureTask<>(new Callable<String>() {
+            @Override
+            public String call() {
+                return result;
+            }
+        });
+    }
+
+    private static boolean waitCancelled(FutureTask<?> task) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!task.isCancelled() && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        return task.isCancelled();
+    }
+}
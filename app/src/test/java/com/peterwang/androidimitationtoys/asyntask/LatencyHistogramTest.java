@@ -0,0 +1,35 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    @Test
+    public void bucketsAreContiguousAndContainTheirValues() throws Exception {
+        long previousUpperBound = -1;
+        for (int i = 0; i < 200; i++) {
+            long upperBound = LatencyHistogram.bucketUpperBound(i);
+            assertEquals(i, LatencyHistogram.bucketIndex(previousUpperBound + 1));
+            assertEquals(i, LatencyHistogram.bucketIndex(upperBound));
+            previousUpperBound = upperBound;
+        }
+        assertTrue(LatencyHistogram.bucketIndex(Long.MAX_VALUE) >= 0);
+    }
+
+    @Test
+    public void percentilesStayWithinBucketPrecision() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1000000, snapshot.getMax());
+        assertEquals(500500, (long) snapshot.getMean());
+        long p50 = snapshot.getValueAtPercentile(50);
+        assertTrue(p50 >= 500000 && p50 <= 500000 * 1.125);
+        assertEquals(1000000, snapshot.getValueAtPercentile(100));
+    }
+}
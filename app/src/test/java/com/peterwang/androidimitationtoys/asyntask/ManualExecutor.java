@@ -0,0 +1,31 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 测试用的目标线程池：提交的任务在测试线程中手动执行，可以切换为拒绝执行
+ */
+final class ManualExecutor implements Executor {
+    private final List<Runnable> mQueued = new ArrayList<>();
+    volatile boolean mReject;
+
+    @Override
+    public void execute(Runnable command) {
+        if (mReject) {
+            throw new RejectedExecutionException();
+        }
+        mQueued.add(command);
+    }
+
+    /**
+     * 依次执行已提交的任务，包括执行过程中新提交的任务
+     */
+    void runAll() {
+        while (!mQueued.isEmpty()) {
+            mQueued.remove(0).run();
+        }
+    }
+}
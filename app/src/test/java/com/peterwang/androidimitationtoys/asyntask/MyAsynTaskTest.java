@@ -0,0 +1,301 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class MyAsynTaskTest {
+    private Executor mDefaultExecutor;
+
+    @Before
+    public void setUp() {
+        mDefaultExecutor = MyAsynTask.getDefaultExecutor();
+        //结果直接在工作线程回调，测试线程等待CountDownLatch
+        MyAsynTask.setResultExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        MyAsynTask.useThreadPoolExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        MyAsynTask.setResultExecutor(null);
+        MyAsynTask.setDefaultExecutor(mDefaultExecutor);
+    }
+
+    @Test
+    public void cancellationTokenStopsCooperativeLoop() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch exited = new CountDownLatch(1);
+        RecordingTask task = new RecordingTask() {
+            @Override
+            protected Integer doInBackground(Void... params) {
+                CancellationToken token = getCancellationToken();
+                started.countDown();
+                try {
+                    while (true) {
+                        token.throwIfCancelled();
+                        Thread.yield();
+                    }
+                } finally {
+                    exited.countDown();
+                }
+            }
+        };
+        task.execute();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertFalse(task.getCancellationToken().isCancelled());
+
+        //不中断，只靠取消标记退出循环
+        assertTrue(task.cancel(false));
+        assertTrue(task.getCancellationToken().isCancelled());
+        assertTrue(exited.await(5, TimeUnit.SECONDS));
+        assertTrue(task.mFinished.await(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("cancelled"), task.mEvents);
+    }
+
+    @Test
+    public void executeWithTimeoutCancelsSlowTask() throws Exception {
+        RecordingTask task = new RecordingTask() {
+            @Override
+            protected Integer doInBackground(Void... params) {
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+                } catch (InterruptedException e) {
+                    return null;
+                }
+                return 1;
+            }
+        };
+        task.executeWithTimeout(50, TimeUnit.MILLISECONDS);
+
+        assertTrue(task.mFinished.await(5, TimeUnit.SECONDS));
+        assertTrue(task.isCancelled());
+        assertEquals(Collections.singletonList("cancelled"), task.mEvents);
+    }
+
+    @Test
+    public void executeWithTimeoutDoesNotCancelBeforeExecuteReturns() throws Exception {
+        RecordingTask task = new RecordingTask() {
+            @Override
+            protected void onPreExecute() {
+                //超时时间比onPreExecute短，计时器仍然在execute返回之后才开始
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                mEvents.add("pre");
+            }
+
+            @Override
+            protected Integer doInBackground(Void... params) {
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+                } catch (InterruptedException e) {
+                    return null;
+                }
+                return 1;
+            }
+        };
+        task.executeWithTimeout(1, TimeUnit.MILLISECONDS);
+
+        assertTrue(task.mFinished.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("pre", "cancelled"), task.mEvents);
+    }
+
+    @Test
+    public void executeWithTimeoutIsClearedOnCompletion() throws Exception {
+        RecordingTask task = new RecordingTask();
+        task.executeWithTimeout(500, TimeUnit.MILLISECONDS);
+        assertTrue(task.mFinished.await(5, TimeUnit.SECONDS));
+
+        //超过超时时间后任务仍然是正常结束
+        Thread.sleep(600);
+        assertFalse(task.isCancelled());
+        assertEquals(Collections.singletonList("post 1"), task.mEvents);
+    }
+
+    @Test
+    public void cancellingQueuedTaskRemovesItFromQueue() throws Exception {
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) MyAsynTask.getThreadPoolExecutor();
+        int coreSize = pool.getCorePoolSize();
+        final CountDownLatch gatesStarted = new CountDownLatch(coreSize);
+        final CountDownLatch releaseGates = new CountDownLatch(1);
+        for (int i = 0; i < coreSize; i++) {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    gatesStarted.countDown();
+                    try {
+                        releaseGates.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        try {
+            //核心线程都被占用，CPU任务只能在THREAD_BLOCKING_DEQUE中排队
+            assertTrue(gatesStarted.await(5, TimeUnit.SECONDS));
+            RecordingTask task = new RecordingTask();
+            task.setTaskType(MyAsynTask.TaskType.CPU);
+            task.execute();
+            assertEquals(1, pool.getQueue().size());
+
+            assertTrue(task.cancel(false));
+            assertTrue(pool.getQueue().isEmpty());
+            assertTrue(task.mFinished.await(5, TimeUnit.SECONDS));
+            assertEquals(Collections.singletonList("cancelled"), task.mEvents);
+        } finally {
+            releaseGates.countDown();
+        }
+    }
+
+    @Test
+    public void coalescedFollowerGetsLeaderResult() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        CoalescingTask leader = new CoalescingTask(release, runs);
+        CoalescingTask follower = new CoalescingTask(release, runs);
+        leader.execute("same");
+        follower.execute("same");
+
+        release.countDown();
+        assertTrue(leader.mFinished.await(5, TimeUnit.SECONDS));
+        assertTrue(follower.mFinished.await(5, TimeUnit.SECONDS));
+        assertEquals(1, runs.get());
+        assertEquals(Collections.singletonList("post 1"), leader.mEvents);
+        assertEquals(Collections.singletonList("post 1"), follower.mEvents);
+    }
+
+    @Test
+    public void coalescedFollowerIsCancelledWithLeader() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        CoalescingTask leader = new CoalescingTask(release, runs);
+        CoalescingTask follower = new CoalescingTask(release, runs);
+        leader.execute("cancel leader");
+        follower.execute("cancel leader");
+
+        assertTrue(leader.cancel(true));
+        assertTrue(leader.mFinished.await(5, TimeUnit.SECONDS));
+        assertTrue(follower.mFinished.await(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("cancelled"), leader.mEvents);
+        assertEquals(Collections.singletonList("cancelled"), follower.mEvents);
+        release.countDown();
+    }
+
+    @Test
+    public void cancellingFollowerDoesNotAffectLeader() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        CoalescingTask leader = new CoalescingTask(release, runs);
+        CoalescingTask follower = new CoalescingTask(release, runs);
+        leader.execute("cancel follower");
+        follower.execute("cancel follower");
+
+        assertTrue(follower.cancel(true));
+        assertTrue(follower.mFinished.await(5, TimeUnit.SECONDS));
+        release.countDown();
+        assertTrue(leader.mFinished.await(5, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList("cancelled"), follower.mEvents);
+        assertEquals(Collections.singletonList("post 1"), leader.mEvents);
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void finishedLeaderIsNotJoined() throws Exception {
+        CountDownLatch release = new CountDownLatch(0);
+        AtomicInteger runs = new AtomicInteger();
+        CoalescingTask first = new CoalescingTask(release, runs);
+        first.execute("sequential");
+        assertTrue(first.mFinished.await(5, TimeUnit.SECONDS));
+
+        CoalescingTask second = new CoalescingTask(release, runs);
+        second.execute("sequential");
+        assertTrue(second.mFinished.await(5, TimeUnit.SECONDS));
+        assertEquals(2, runs.get());
+        assertEquals(Collections.singletonList("post 2"), second.mEvents);
+    }
+
+    private static class RecordingTask extends MyAsynTask<Void, Integer> {
+        final List<String> mEvents = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch mFinished = new CountDownLatch(1);
+
+        @Override
+        protected Integer doInBackground(Void... params) {
+            return 1;
+        }
+
+        @Override
+        protected void onPostExecute(Integer result) {
+            mEvents.add("post " + result);
+            mFinished.countDown();
+        }
+
+        @Override
+        protected void onCancelled() {
+            mEvents.add("cancelled");
+            mFinished.countDown();
+        }
+    }
+
+    /**
+     * 以参数为合并key，等待release后返回已经执行的次数
+     */
+    private static final class CoalescingTask extends MyAsynTask<String, Integer> {
+        final List<String> mEvents = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch mFinished = new CountDownLatch(1);
+        private final CountDownLatch mRelease;
+        private final AtomicInteger mRuns;
+
+        CoalescingTask(CountDownLatch release, AtomicInteger runs) {
+            mRelease = release;
+            mRuns = runs;
+        }
+
+        @Override
+        protected Object getCoalescingKey(String... params) {
+            return params[0];
+        }
+
+        @Override
+        protected Integer doInBackground(String... params) {
+            int run = mRuns.incrementAndGet();
+            try {
+                mRelease.await();
+            } catch (InterruptedException e) {
+                return null;
+            }
+            return run;
+        }
+
+        @Override
+        protected void onPostExecute(Integer result) {
+            mEvents.add("post " + result);
+            mFinished.countDown();
+        }
+
+        @Override
+        protected void onCancelled() {
+            mEvents.add("cancelled");
+            mFinished.countDown();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class OverflowPolicyTest {
+    private static final Runnable NO_OP = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    @Test
+    public void discardOldestSkipsSchedulerRunnables() throws Exception {
+        final List<Runnable> discarded = new ArrayList<>();
+        OverflowPolicy policy = OverflowPolicy.discardOldest(new OverflowPolicy.OnDiscardListener() {
+            @Override
+            public void onDiscard(Runnable runnable) {
+                discarded.add(runnable);
+            }
+        });
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(2), policy);
+        CountDownLatch gate = block(pool);
+        //队列：[SerialExecutor的调度任务, oldest]
+        SerialExecutor serialExecutor = new SerialExecutor(pool);
+        final CountDownLatch serialRan = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++) {
+            serialExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    serialRan.countDown();
+                }
+            });
+        }
+        FutureTask<String> oldest = new FutureTask<>(NO_OP, "oldest");
+        pool.execute(oldest);
+        FutureTask<String> newest = new FutureTask<>(NO_OP, "newest");
+        pool.execute(newest);
+        gate.countDown();
+
+        assertEquals("newest", newest.get(5, TimeUnit.SECONDS));
+        assertTrue(serialRan.await(5, TimeUnit.SECONDS));
+        assertTrue(oldest.isCancelled());
+        assertEquals(1, discarded.size());
+        assertSame(oldest, discarded.get(0));
+        assertEquals(1, policy.getCount(OverflowPolicy.Outcome.DISCARDED_OLDEST));
+        pool.shutdown();
+    }
+
+    @Test
+    public void discardOldestAbortsWhenNothingCanBeDiscarded() throws Exception {
+        OverflowPolicy policy = OverflowPolicy.discardOldest(null);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(1), policy);
+        CountDownLatch gate = block(pool);
+        SerialExecutor serialExecutor = new SerialExecutor(pool);
+        final CountDownLatch serialRan = new CountDownLatch(1);
+        serialExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                serialRan.countDown();
+            }
+        });
+        try {
+            pool.execute(new FutureTask<>(NO_OP, "rejected"));
+            fail();
+        } catch (RejectedExecutionException expected) {
+        }
+        gate.countDown();
+
+        assertTrue(serialRan.await(5, TimeUnit.SECONDS));
+        assertEquals(1, policy.getCount(OverflowPolicy.Outcome.ABORTED));
+        pool.shutdown();
+    }
+
+    private static CountDownLatch block(ThreadPoolExecutor pool) throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        started.await();
+        return gate;
+    }
+}
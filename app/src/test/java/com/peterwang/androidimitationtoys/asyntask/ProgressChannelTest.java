@@ -0,0 +1,96 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ProgressChannelTest {
+    private final List<String> mEvents = Collections.synchronizedList(new ArrayList<String>());
+    private final CountDownLatch mFinished = new CountDownLatch(1);
+    private ProgressChannel<Integer> mChannel;
+
+    @Before
+    public void setUp() {
+        MyAsynTask.setResultExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        //间隔足够长，进度只能在任务结束时被清空回调
+        mChannel = ProgressChannel.latestWins(new ProgressChannel.OnProgressUpdateListener<Integer>() {
+            @Override
+            public void onProgressUpdate(Integer progress) {
+                mEvents.add("progress " + progress);
+            }
+        }, TimeUnit.MINUTES.toMillis(1));
+    }
+
+    @Test
+    public void pendingProgressIsDeliveredBeforeResult() throws Exception {
+        MyAsynTask<Void, String> task = new RecordingTask() {
+            @Override
+            protected String doInBackground(Void... params) {
+                for (int i = 1; i <= 3; i++) {
+                    mChannel.publish(i);
+                }
+                return "done";
+            }
+        };
+        task.setProgressChannel(mChannel);
+        task.execute();
+
+        assertTrue(mFinished.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("progress 3", "post done"), mEvents);
+    }
+
+    @Test
+    public void progressIsDiscardedAfterCancel() throws Exception {
+        final CountDownLatch published = new CountDownLatch(1);
+        MyAsynTask<Void, String> task = new RecordingTask() {
+            @Override
+            protected String doInBackground(Void... params) {
+                mChannel.publish(1);
+                published.countDown();
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+                } catch (InterruptedException e) {
+                    mChannel.publish(2);
+                }
+                return "interrupted";
+            }
+        };
+        task.setProgressChannel(mChannel);
+        task.execute();
+        assertTrue(published.await(5, TimeUnit.SECONDS));
+        task.cancel(true);
+
+        assertTrue(mFinished.await(5, TimeUnit.SECONDS));
+        //主线程中已经post的回调晚于取消执行
+        mChannel.run();
+        assertEquals(Collections.singletonList("cancelled"), mEvents);
+    }
+
+    private abstract class RecordingTask extends MyAsynTask<Void, String> {
+        @Override
+        protected void onPostExecute(String result) {
+            mEvents.add("post " + result);
+            mFinished.countDown();
+        }
+
+        @Override
+        protected void onCancelled() {
+            mEvents.add("cancelled");
+            mFinished.countDown();
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class RecyclableAsynTaskTest {
+    private Executor mDefaultExecutor;
+
+    @Before
+    public void setUp() {
+        mDefaultExecutor = MyAsynTask.getDefaultExecutor();
+        MyAsynTask.setResultExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        MyAsynTask.setResultExecutor(null);
+        MyAsynTask.setDefaultExecutor(mDefaultExecutor);
+    }
+
+    @Test
+    public void interruptedDoInBackgroundDeliversOnCancelled() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(1);
+        final AtomicReference<String> callback = new AtomicReference<>();
+        RecyclableAsynTask<Void, String> task = new RecyclableAsynTask<Void, String>() {
+            @Override
+            protected String doInBackground(Void... params) {
+                started.countDown();
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return "done";
+            }
+
+            @Override
+            protected void onPostExecute(String result) {
+                callback.set("post");
+                finished.countDown();
+            }
+
+            @Override
+            protected void onCancelled() {
+                callback.set("cancelled");
+                finished.countDown();
+            }
+        };
+        task.execute();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(task.cancel(true));
+
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        assertEquals("cancelled", callback.get());
+
+        //同一个单一线程池中的下一个任务不会看到残留的中断状态
+        final AtomicBoolean interrupted = new AtomicBoolean(true);
+        final CountDownLatch nextFinished = new CountDownLatch(1);
+        new RecyclableAsynTask<Void, Void>() {
+            @Override
+            protected Void doInBackground(Void... params) {
+                interrupted.set(Thread.currentThread().isInterrupted());
+                return null;
+            }
+
+            @Override
+            protected void onPostExecute(Void result) {
+                nextFinished.countDown();
+            }
+        }.execute();
+        assertTrue(nextFinished.await(5, TimeUnit.SECONDS));
+        assertFalse(interrupted.get());
+    }
+
+    @Test
+    public void cancellingQueuedTaskRemovesItFromQueue() throws Exception {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        MyAsynTask.setDefaultExecutor(pool);
+        final CountDownLatch gate = new CountDownLatch(1);
+        final CountDownLatch gateStarted = new CountDownLatch(1);
+        pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                gateStarted.countDown();
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        assertTrue(gateStarted.await(5, TimeUnit.SECONDS));
+
+        RecordingTask task = new RecordingTask();
+        task.execute(1);
+        assertEquals(1, pool.getQueue().size());
+        assertTrue(task.cancel(false));
+        assertTrue(pool.getQueue().isEmpty());
+        assertEquals(Collections.singletonList("cancelled"), task.mEvents);
+
+        gate.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(0, task.mRuns.get());
+    }
+
+    @Test
+    public void recycleResetsTaskForAnotherExecute() throws Exception {
+        MyAsynTask.useThreadPoolExecutor();
+        RecordingTask task = new RecordingTask();
+        task.execute(1);
+        assertTrue(task.awaitEvents(1));
+        try {
+            task.execute(2);
+            fail("expected IllegalThreadStateException");
+        } catch (IllegalThreadStateException expected) {
+        }
+
+        task.recycle();
+        assertEquals(1, task.mRecycles.get());
+        task.execute(2);
+        assertTrue(task.awaitEvents(2));
+        assertFalse(task.isCancelled());
+        assertEquals(Arrays.asList("post 1", "post 2"), task.mEvents);
+    }
+
+    @Test
+    public void poolReusesRecycledTasks() throws Exception {
+        MyAsynTask.useThreadPoolExecutor();
+        final AtomicInteger created = new AtomicInteger();
+        RecyclableAsynTask.Pool<RecordingTask> pool = new RecyclableAsynTask.Pool<>(
+                new RecyclableAsynTask.Pool.Factory<RecordingTask>() {
+                    @Override
+                    public RecordingTask create() {
+                        created.incrementAndGet();
+                        return new RecordingTask();
+                    }
+                }, 1);
+
+        RecordingTask first = pool.acquire();
+        first.execute(1);
+        assertTrue(first.awaitEvents(1));
+        first.recycle();
+
+        //放回的任务被重新取出，状态已经重置
+        RecordingTask second = pool.acquire();
+        assertSame(first, second);
+        second.execute(2);
+        assertTrue(second.awaitEvents(2));
+        assertEquals("post 2", second.mEvents.get(1));
+
+        //对象池为空时新建
+        assertNotSame(second, pool.acquire());
+        assertEquals(2, created.get());
+    }
+
+    private static final class RecordingTask extends RecyclableAsynTask<Integer, Integer> {
+        final List<String> mEvents = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger mRuns = new AtomicInteger();
+        final AtomicInteger mRecycles = new AtomicInteger();
+
+        @Override
+        protected Integer doInBackground(Integer... params) {
+            mRuns.incrementAndGet();
+            return params[0];
+        }
+
+        @Override
+        protected void onPostExecute(Integer result) {
+            mEvents.add("post " + result);
+        }
+
+        @Override
+        protected void onCancelled() {
+            mEvents.add("cancelled");
+        }
+
+        @Override
+        protected void onRecycle() {
+            mRecycles.incrementAndGet();
+        }
+
+        boolean awaitEvents(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (mEvents.size() < count && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            return mEvents.size() >= count;
+        }
+    }
+}
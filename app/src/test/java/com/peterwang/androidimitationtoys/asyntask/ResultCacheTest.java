@@ -0,0 +1,46 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ResultCacheTest {
+    @Test
+    public void evictsLeastRecentlyUsedByWeight() throws Exception {
+        ResultCache<String, String> cache = new ResultCache<>(6, 0, TimeUnit.MILLISECONDS,
+                new ResultCache.Weigher<String, String>() {
+                    @Override
+                    public int weigh(String key, String value) {
+                        return value.length();
+                    }
+                });
+        cache.put("a", "aa");
+        cache.put("b", "bb");
+        cache.put("c", "cc");
+        assertEquals("aa", cache.get("a"));
+        cache.put("d", "dd");
+
+        assertNull(cache.get("b"));
+        assertEquals("aa", cache.get("a"));
+        assertEquals(6, cache.weight());
+        assertEquals(1, cache.evictionCount());
+
+        cache.put("e", "eeeeeee");
+        assertNull(cache.get("e"));
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void expiresAfterWrite() throws Exception {
+        ResultCache<String, String> cache = new ResultCache<>(10, 20, TimeUnit.MILLISECONDS, null);
+        cache.put("a", "a");
+        assertEquals("a", cache.get("a"));
+        Thread.sleep(30);
+
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.weight());
+    }
+}
@@ -0,0 +1,134 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SerialExecutorTest {
+    @Test
+    public void runsTasksOneAtATimeInSubmitOrder() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        SerialExecutor serialExecutor = new SerialExecutor(pool);
+        final int count = 1000;
+        final List<Integer> order = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(count);
+
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            serialExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int current = running.incrementAndGet();
+                    if (current > maxRunning.get()) {
+                        maxRunning.set(current);
+                    }
+                    order.add(index);
+                    running.decrementAndGet();
+                    latch.countDown();
+                }
+            });
+        }
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(1, maxRunning.get());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    public void concurrentProducersLoseNoTask() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        final SerialExecutor serialExecutor = new SerialExecutor(pool);
+        final int producers = 4;
+        final int perProducer = 2000;
+        final CountDownLatch latch = new CountDownLatch(producers * perProducer);
+        final Runnable countDown = new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+
+        for (int p = 0; p < producers; p++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perProducer; i++) {
+                        serialExecutor.execute(countDown);
+                    }
+                }
+            }).start();
+        }
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        pool.shutdown();
+    }
+
+    @Test
+    public void rejectedSubmitIsNotRunLater() throws Exception {
+        ManualExecutor target = new ManualExecutor();
+        SerialExecutor serialExecutor = new SerialExecutor(target);
+        List<String> ran = new ArrayList<>();
+
+        target.mReject = true;
+        try {
+            serialExecutor.execute(record(ran, "rejected"));
+            fail("expected RejectedExecutionException");
+        } catch (RejectedExecutionException expected) {
+        }
+        target.mReject = false;
+        serialExecutor.execute(record(ran, "accepted"));
+        target.runAll();
+
+        assertEquals(Collections.singletonList("accepted"), ran);
+    }
+
+    @Test
+    public void rejectedRescheduleOnWorkerCancelsQueuedTasks() throws Exception {
+        ManualExecutor target = new ManualExecutor();
+        SerialExecutor serialExecutor = new SerialExecutor(target);
+        List<String> ran = new ArrayList<>();
+        FutureTask<Void> first = record(ran, "first");
+        FutureTask<Void> second = record(ran, "second");
+        serialExecutor.execute(first);
+        serialExecutor.execute(second);
+
+        //第一个任务执行完调度下一个时被拒绝，异常不会抛出工作线程，排队的任务被取消
+        target.mReject = true;
+        target.runAll();
+        assertTrue(first.isDone() && !first.isCancelled());
+        assertTrue(second.isCancelled());
+
+        target.mReject = false;
+        serialExecutor.execute(record(ran, "third"));
+        target.runAll();
+        assertEquals(Arrays.asList("first", "third"), ran);
+    }
+
+    private static FutureTask<Void> record(final List<String> ran, final String name) {
+        return new FutureTask<>(new Callable<Void>() {
+            @Override
+            public Void call() {
+                ran.add(name);
+                return null;
+            }
+        });
+    }
+}
@@ -0,0 +1,169 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class TaskGroupTest {
+    private final List<String> mEvents = Collections.synchronizedList(new ArrayList<String>());
+    private CountDownLatch mFinished;
+
+    private ExecutorService mMainThread;
+    private Executor mDefaultExecutor;
+
+    @Before
+    public void setUp() {
+        mDefaultExecutor = MyAsynTask.getDefaultExecutor();
+        //模拟主线程：结果回调晚于任务结束，组结束时最后完成的任务还没有回调onPostExecute
+        mMainThread = Executors.newSingleThreadExecutor();
+        MyAsynTask.setResultExecutor(mMainThread);
+        MyAsynTask.useThreadPoolExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        MyAsynTask.setResultExecutor(null);
+        MyAsynTask.setDefaultExecutor(mDefaultExecutor);
+        mMainThread.shutdown();
+    }
+
+    @Test
+    public void allDeliversOnPostExecuteToEveryMember() throws Exception {
+        mFinished = new CountDownLatch(4);
+        TaskGroup<Integer, List<Integer>> group = TaskGroup.all(new RecordingListener<List<Integer>>());
+        for (int i = 0; i < 3; i++) {
+            group.add(new MemberTask(i, false));
+        }
+        group.execute();
+
+        assertTrue(mFinished.await(5, TimeUnit.SECONDS));
+        assertEquals(new HashSet<>(Arrays.asList("post 0", "post 1", "post 2", "group ok [0, 1, 2]")),
+                new HashSet<>(mEvents));
+        assertEquals(4, mEvents.size());
+    }
+
+    @Test
+    public void anyCancelsOnlyUnfinishedMembers() throws Exception {
+        mFinished = new CountDownLatch(4);
+        TaskGroup<Integer, Integer> group = TaskGroup.any(new RecordingListener<Integer>());
+        group.add(new MemberTask(0, true));
+        group.add(new MemberTask(1, false));
+        group.add(new MemberTask(2, true));
+        group.execute();
+
+        assertTrue(mFinished.await(5, TimeUnit.SECONDS));
+        assertEquals(new HashSet<>(Arrays.asList("cancelled 0", "post 1", "cancelled 2", "group ok 1")),
+                new HashSet<>(mEvents));
+        assertEquals(4, mEvents.size());
+    }
+
+    @Test
+    public void throwingReducerFailsGroup() throws Exception {
+        mFinished = new CountDownLatch(2);
+        TaskGroup<Integer, Integer> group = TaskGroup.reduce(0, new TaskGroup.Reducer<Integer, Integer>() {
+            @Override
+            public Integer reduce(Integer accumulator, Integer result) {
+                throw new IllegalStateException("boom");
+            }
+        }, new RecordingListener<Integer>());
+        group.add(new MemberTask(0, false));
+        group.execute();
+
+        assertTrue(mFinished.await(5, TimeUnit.SECONDS));
+        assertEquals(new HashSet<>(Arrays.asList("post 0", "group failed java.lang.IllegalStateException: boom")),
+                new HashSet<>(mEvents));
+    }
+
+    @Test
+    public void rejectedCoalescingMemberCountsAsOneFailure() throws Exception {
+        //只拒绝第一次提交
+        final AtomicBoolean rejected = new AtomicBoolean();
+        final Executor pool = MyAsynTask.getThreadPoolExecutor();
+        MyAsynTask.setDefaultExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                if (rejected.compareAndSet(false, true)) {
+                    throw new RejectedExecutionException("rejected by the test");
+                }
+                pool.execute(command);
+            }
+        });
+        mFinished = new CountDownLatch(3);
+        TaskGroup<Integer, Integer> group = TaskGroup.any(new RecordingListener<Integer>());
+        group.add(new MemberTask(0, false) {
+            @Override
+            protected Object getCoalescingKey(Void... params) {
+                return "rejected leader";
+            }
+        });
+        group.add(new MemberTask(1, false));
+        group.execute();
+
+        //被拒绝的任务只算一次失败，另一个任务仍然可以让组成功；组结束时取消没有执行的被拒绝任务
+        assertTrue(mFinished.await(5, TimeUnit.SECONDS));
+        assertEquals(new HashSet<>(Arrays.asList("cancelled 0", "post 1", "group ok 1")), new HashSet<>(mEvents));
+    }
+
+    private class MemberTask extends MyAsynTask<Void, Integer> {
+        private final int mIndex;
+        private final boolean mBlock;
+
+        MemberTask(int index, boolean block) {
+            mIndex = index;
+            mBlock = block;
+        }
+
+        @Override
+        protected Integer doInBackground(Void... params) {
+            if (mBlock) {
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+                } catch (InterruptedException e) {
+                    return null;
+                }
+            }
+            return mIndex;
+        }
+
+        @Override
+        protected void onPostExecute(Integer result) {
+            mEvents.add("post " + result);
+            mFinished.countDown();
+        }
+
+        @Override
+        protected void onCancelled() {
+            mEvents.add("cancelled " + mIndex);
+            mFinished.countDown();
+        }
+    }
+
+    private final class RecordingListener<T> implements TaskGroup.OnGroupCompleteListener<T> {
+        @Override
+        public void onGroupComplete(T result) {
+            mEvents.add("group ok " + result);
+            mFinished.countDown();
+        }
+
+        @Override
+        public void onGroupFailed(Throwable error) {
+            mEvents.add("group failed " + error);
+            mFinished.countDown();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TaskLimiterTest {
+    private final List<Integer> mExecuted = Collections.synchronizedList(new ArrayList<Integer>());
+    private final FakeClock mClock = new FakeClock();
+    private volatile boolean mReject;
+    private Executor mDefaultExecutor;
+
+    private final TaskLimiter.TaskFactory<Integer> mFactory = new TaskLimiter.TaskFactory<Integer>() {
+        @Override
+        public MyAsynTask<Integer, ?> newTask() {
+            return new RecordingTask();
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mDefaultExecutor = MyAsynTask.getDefaultExecutor();
+        //延后执行经过ResultDispatcher，直接在超时线程回调
+        MyAsynTask.setResultExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        MyAsynTask.useThreadPoolExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        MyAsynTask.setResultExecutor(null);
+        MyAsynTask.setDefaultExecutor(mDefaultExecutor);
+    }
+
+    @Test
+    public void debounceRunsOnceWithLastParams() throws Exception {
+        TaskLimiter<Integer> limiter = TaskLimiter.debounce(mFactory, 50, TimeUnit.MILLISECONDS);
+        limiter.setClock(mClock);
+
+        assertFalse(limiter.submit(1));
+        assertFalse(limiter.submit(2));
+        Integer[] last = {3};
+        assertFalse(limiter.submit(last));
+        //延后执行使用提交时的参数，之后修改数组不影响
+        last[0] = 4;
+
+        waitForExecuted(1);
+        assertEquals(Collections.singletonList(3), mExecuted);
+        assertEquals(3, limiter.submitCount());
+        assertEquals(1, limiter.executeCount());
+        assertEquals(2, limiter.dropCount());
+        assertFalse(limiter.hasPending());
+    }
+
+    @Test
+    public void debounceCancelPendingDropsExecution() {
+        TaskLimiter<Integer> limiter = TaskLimiter.debounce(mFactory, 1, TimeUnit.HOURS);
+        limiter.setClock(mClock);
+
+        assertFalse(limiter.submit(1));
+        assertTrue(limiter.cancelPending());
+        assertFalse(limiter.cancelPending());
+        assertEquals(0, limiter.executeCount());
+        assertEquals(1, limiter.dropCount());
+    }
+
+    @Test
+    public void throttleMergesSubmitsInsideInterval() throws Exception {
+        TaskLimiter<Integer> limiter = TaskLimiter.throttle(mFactory, 50, TimeUnit.MILLISECONDS);
+        limiter.setClock(mClock);
+
+        assertTrue(limiter.submit(1));
+        mClock.advance(10);
+        assertFalse(limiter.submit(2));
+        assertFalse(limiter.submit(3));
+        assertTrue(limiter.hasPending());
+
+        //窗口结束时按最后一次提交的参数执行
+        waitForExecuted(2);
+        assertTrue(mExecuted.contains(3));
+        assertEquals(2, limiter.executeCount());
+        assertEquals(1, limiter.dropCount());
+
+        //延后执行也开始一个新窗口
+        mClock.advance(49);
+        assertFalse(limiter.submit(4));
+        waitForExecuted(3);
+        mClock.advance(50);
+        assertTrue(limiter.submit(5));
+        waitForExecuted(4);
+        assertEquals(4, limiter.executeCount());
+        assertEquals(1, limiter.dropCount());
+    }
+
+    @Test
+    public void rateLimitAllowsBurstThenRefills() throws Exception {
+        TaskLimiter<Integer> limiter = TaskLimiter.rateLimit(mFactory, 2, 2);
+        limiter.setClock(mClock);
+
+        assertTrue(limiter.submit(1));
+        assertTrue(limiter.submit(2));
+        assertFalse(limiter.submit(3));
+
+        //每秒2个，250ms只补充半个令牌
+        mClock.advance(250);
+        assertFalse(limiter.submit(4));
+        mClock.advance(250);
+        assertTrue(limiter.submit(5));
+
+        //长时间空闲后最多积攒burst个
+        mClock.advance(TimeUnit.SECONDS.toMillis(10));
+        assertTrue(limiter.submit(6));
+        assertTrue(limiter.submit(7));
+        assertFalse(limiter.submit(8));
+
+        waitForExecuted(5);
+        assertEquals(8, limiter.submitCount());
+        assertEquals(5, limiter.executeCount());
+        assertEquals(3, limiter.dropCount());
+        assertFalse(limiter.hasPending());
+    }
+
+    @Test
+    public void rejectedImmediateExecutionIsRolledBack() throws Exception {
+        TaskLimiter<Integer> limiter = TaskLimiter.rateLimit(mFactory, 1, 1);
+        limiter.setClock(mClock);
+
+        mReject = true;
+        try {
+            limiter.submit(1);
+            fail("expected RejectedExecutionException");
+        } catch (RejectedExecutionException expected) {
+        }
+        assertEquals(0, limiter.executeCount());
+        assertEquals(1, limiter.dropCount());
+
+        //被拒绝的提交退回了令牌
+        mReject = false;
+        assertTrue(limiter.submit(2));
+        waitForExecuted(1);
+        assertEquals(1, limiter.executeCount());
+        assertEquals(Collections.singletonList(2), mExecuted);
+    }
+
+    private void waitForExecuted(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (mExecuted.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, mExecuted.size());
+    }
+
+    /**
+     * 手动推进的时钟，单位毫秒
+     */
+    private static final class FakeClock implements TaskLimiter.Clock {
+        private volatile long mNanos = TimeUnit.SECONDS.toNanos(1);
+
+        void advance(long millis) {
+            mNanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+
+        @Override
+        public long nanoTime() {
+            return mNanos;
+        }
+    }
+
+    private final class RecordingTask extends MyAsynTask<Integer, Void> {
+        @Override
+        public void execute(Integer... params) {
+            if (mReject) {
+                throw new RejectedExecutionException("rejected by the test");
+            }
+            super.execute(params);
+        }
+
+        @Override
+        protected Void doInBackground(Integer... params) {
+            mExecuted.add(params[0]);
+            return null;
+        }
+    }
+}
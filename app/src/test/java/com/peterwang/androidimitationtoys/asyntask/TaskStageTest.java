@@ -0,0 +1,302 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class TaskStageTest {
+
+    private Executor mDefaultExecutor;
+
+    @Before
+    public void setUp() {
+        mDefaultExecutor = MyAsynTask.getDefaultExecutor();
+        //结果直接在工作线程回调，测试线程等待CountDownLatch
+        MyAsynTask.setResultExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        MyAsynTask.useThreadPoolExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        MyAsynTask.setResultExecutor(null);
+        MyAsynTask.setDefaultExecutor(mDefaultExecutor);
+    }
+
+    @Test
+    public void thenApplyAndThenComposeChainTaskResult() throws Exception {
+        ValueTask task = new ValueTask(2);
+        TaskStage<Integer> stage = task.thenApply(new TaskStage.Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer value) {
+                return value * 10;
+            }
+        }).thenCompose(new TaskStage.Function<Integer, TaskStage<Integer>>() {
+            @Override
+            public TaskStage<Integer> apply(Integer value) {
+                return TaskStage.completed(value + 1);
+            }
+        });
+        task.execute();
+
+        assertEquals(Integer.valueOf(21), stage.get(5, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(2), task.asStage().get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void thenCombineWaitsForBothStages() throws Exception {
+        TaskStage<Integer> first = TaskStage.create();
+        TaskStage<String> second = TaskStage.create();
+        TaskStage<String> combined = first.thenCombine(second, new TaskStage.BiFunction<Integer, String, String>() {
+            @Override
+            public String apply(Integer number, String text) {
+                return text + number;
+            }
+        });
+
+        first.complete(1);
+        assertFalse(combined.isDone());
+        second.complete("stage ");
+        assertEquals("stage 1", combined.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void failureSkipsLaterStages() throws Exception {
+        final CountDownLatch skipped = new CountDownLatch(1);
+        TaskStage<Integer> stage = TaskStage.completed(1).thenApply(new TaskStage.Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer value) throws Exception {
+                throw new IllegalStateException("boom");
+            }
+        }).thenApply(new TaskStage.Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer value) {
+                skipped.countDown();
+                return value;
+            }
+        });
+
+        try {
+            stage.get(5, TimeUnit.SECONDS);
+            fail("expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(1, skipped.getCount());
+    }
+
+    @Test
+    public void cancellingTaskCancelsLaterStages() throws Exception {
+        BlockingTask task = new BlockingTask();
+        TaskStage<Integer> stage = task.thenApply(new TaskStage.Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer value) {
+                return value + 1;
+            }
+        }).thenApply(new TaskStage.Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer value) {
+                return value + 1;
+            }
+        });
+        task.execute();
+        assertTrue(task.mStarted.await(5, TimeUnit.SECONDS));
+
+        assertTrue(task.cancel(true));
+        assertTrue(task.mCancelled.await(5, TimeUnit.SECONDS));
+        assertCancelled(stage);
+    }
+
+    @Test
+    public void cancellingFirstStageCancelsTaskAndLaterStages() throws Exception {
+        BlockingTask task = new BlockingTask();
+        TaskStage<Integer> first = task.asStage();
+        TaskStage<Integer> last = first.thenApply(new TaskStage.Function<Integer, Integer>() {
+            @Override
+            public Integer apply(Integer value) {
+                return value + 1;
+            }
+        });
+        task.execute();
+        assertTrue(task.mStarted.await(5, TimeUnit.SECONDS));
+
+        assertTrue(first.cancel(true));
+        assertTrue(task.mCancelled.await(5, TimeUnit.SECONDS));
+        assertTrue(task.isCancelled());
+        assertCancelled(last);
+    }
+
+    @Test
+    public void cancellingComposedStageCancelsInnerStage() throws Exception {
+        final TaskStage<Integer> inner = TaskStage.create();
+        final CountDownLatch composed = new CountDownLatch(1);
+        TaskStage<Integer> outer = TaskStage.completed(1).thenCompose(
+                new TaskStage.Function<Integer, TaskStage<Integer>>() {
+                    @Override
+                    public TaskStage<Integer> apply(Integer value) {
+                        composed.countDown();
+                        return inner;
+                    }
+                });
+        assertTrue(composed.await(5, TimeUnit.SECONDS));
+
+        //无论外部阶段是否已经开始跟随内部阶段，内部阶段都会被取消
+        assertTrue(outer.cancel(true));
+        assertCancelled(outer);
+        assertCancelled(inner);
+    }
+
+    @Test
+    public void taskGetWaitsForResultOrReportsCancellation() throws Exception {
+        ValueTask task = new ValueTask(3);
+        task.execute();
+        assertEquals(Integer.valueOf(3), task.get(5, TimeUnit.SECONDS));
+
+        BlockingTask blocking = new BlockingTask();
+        blocking.execute();
+        assertTrue(blocking.mStarted.await(5, TimeUnit.SECONDS));
+        blocking.cancel(true);
+        try {
+            blocking.get(5, TimeUnit.SECONDS);
+            fail("expected CancellationException");
+        } catch (CancellationException expected) {
+        }
+    }
+
+    @Test
+    public void fromFutureFollowsAndCancelsFuture() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        FutureTask<String> future = new FutureTask<>(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                release.await();
+                return "done";
+            }
+        });
+        TaskStage<String> stage = TaskStage.fromFuture(future);
+        new Thread(future).start();
+        assertFalse(stage.isDone());
+        release.countDown();
+        assertEquals("done", stage.get(5, TimeUnit.SECONDS));
+
+        FutureTask<String> pending = new FutureTask<>(new Callable<String>() {
+            @Override
+            public String call() {
+                return "never";
+            }
+        });
+        TaskStage<String> pendingStage = TaskStage.fromFuture(pending);
+        assertTrue(pendingStage.cancel(true));
+        assertTrue(pending.isCancelled());
+        assertCancelled(pendingStage);
+    }
+
+    @Test
+    public void withTimeoutFailsAndCancelsSlowStage() throws Exception {
+        TaskStage<Integer> slow = TaskStage.create();
+        TaskStage<Integer> timed = slow.withTimeout(50, TimeUnit.MILLISECONDS);
+        try {
+            timed.get(5, TimeUnit.SECONDS);
+            fail("expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        //超时线程先结束带超时的阶段，再取消原阶段
+        assertCancelled(slow);
+    }
+
+    @Test
+    public void withTimeoutIsClearedOnCompletion() throws Exception {
+        TaskStage<Integer> fast = TaskStage.create();
+        TaskStage<Integer> timed = fast.withTimeout(500, TimeUnit.MILLISECONDS);
+        fast.complete(1);
+        assertEquals(Integer.valueOf(1), timed.get(5, TimeUnit.SECONDS));
+
+        //超过超时时间后结果不变，原阶段也没有被取消
+        Thread.sleep(600);
+        assertEquals(Integer.valueOf(1), timed.get());
+        assertFalse(fast.isCancelled());
+    }
+
+    @Test
+    public void addListenerRunsAfterCompletion() throws Exception {
+        final CountDownLatch notified = new CountDownLatch(2);
+        Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+                notified.countDown();
+            }
+        };
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        TaskStage<Integer> stage = TaskStage.create();
+        stage.addListener(listener, direct);
+        assertEquals(2, notified.getCount());
+        stage.completeExceptionally(new IllegalStateException("boom"));
+        //已经结束的阶段立即回调
+        stage.addListener(listener, direct);
+        assertTrue(notified.await(5, TimeUnit.SECONDS));
+    }
+
+    private static void assertCancelled(TaskStage<?> stage) throws Exception {
+        try {
+            stage.get(5, TimeUnit.SECONDS);
+            fail("expected CancellationException");
+        } catch (CancellationException expected) {
+            assertTrue(stage.isCancelled());
+        }
+    }
+
+    private static final class ValueTask extends MyAsynTask<Void, Integer> {
+        private final int mValue;
+
+        ValueTask(int value) {
+            mValue = value;
+        }
+
+        @Override
+        protected Integer doInBackground(Void... params) {
+            return mValue;
+        }
+    }
+
+    private static final class BlockingTask extends MyAsynTask<Void, Integer> {
+        final CountDownLatch mStarted = new CountDownLatch(1);
+        final CountDownLatch mCancelled = new CountDownLatch(1);
+
+        @Override
+        protected Integer doInBackground(Void... params) {
+            mStarted.countDown();
+            try {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                return null;
+            }
+            return 0;
+        }
+
+        @Override
+        protected void onCancelled() {
+            mCancelled.countDown();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+public class TraceRecorderTest {
+
+    @Test
+    public void cancelledWhileQueuedClosesQueuedSpan() throws Exception {
+        TraceRecorder recorder = new TraceRecorder(8);
+        recorder.trace(TaskTracer.Event.EXECUTE, 1, "Task", 1000);
+        //没有BACKGROUND_START，直接回调onCancelled
+        recorder.trace(TaskTracer.Event.DELIVER_START, 1, "Task", 2000);
+        recorder.trace(TaskTracer.Event.FINISH, 1, "Task", 3000);
+        StringWriter writer = new StringWriter();
+        recorder.writeChromeTrace(writer);
+
+        String json = writer.toString();
+        assertTrue(json.contains("\"name\":\"queued\",\"cat\":\"Task\",\"ph\":\"b\""));
+        assertTrue(json.contains("\"name\":\"queued\",\"cat\":\"Task\",\"ph\":\"e\""));
+        assertEquals(json.indexOf("\"ph\":\"e\""), json.lastIndexOf("\"ph\":\"e\""));
+    }
+
+    @Test
+    public void executedTaskClosesQueuedSpanOnce() throws Exception {
+        TraceRecorder recorder = new TraceRecorder(8);
+        recorder.trace(TaskTracer.Event.EXECUTE, 1, "Task", 1000);
+        recorder.trace(TaskTracer.Event.BACKGROUND_START, 1, "Task", 2000);
+        recorder.trace(TaskTracer.Event.BACKGROUND_END, 1, "Task", 3000);
+        recorder.trace(TaskTracer.Event.DELIVER_START, 1, "Task", 4000);
+        recorder.trace(TaskTracer.Event.FINISH, 1, "Task", 5000);
+        StringWriter writer = new StringWriter();
+        recorder.writeChromeTrace(writer);
+
+        String json = writer.toString();
+        assertEquals(json.indexOf("\"ph\":\"e\""), json.lastIndexOf("\"ph\":\"e\""));
+    }
+}
@@ -0,0 +1,151 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量提交基准测试：一次提交BATCH_SIZE个任务，比较逐个execute和executeAll的提交耗时（每个任务平均），
+ * 等待任务结束不计入。任务在每次调用前创建好，并且提交期间用闸门任务占住线程池的所有核心线程，
+ * 只统计提交线程本身的开销，不会把工作线程抢占CPU执行任务的时间算进来（核数少的机器上尤其明显）。
+ * BATCH_SIZE小于THREAD_BLOCKING_DEQUE的容量，逐个execute时不会触发过载策略。
+ * priority和lifo模式走DispatchingExecutor，executeAll一次性入队后只调度一次
+ *
+ * @author peter_wang
+ * @create-time 26/10/20 17:40
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BatchSubmitBenchmark {
+    private static final int BATCH_SIZE = 100;
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Param({"serial", "threadPool", "priority", "lifo"})
+    public String mode;
+
+    private CountDownLatch mLatch;
+    private CountDownLatch mGate;
+    private List<EmptyTask> mTasks;
+
+    @Setup
+    public void setUp() {
+        MyAsynTask.setResultExecutor(DIRECT_EXECUTOR);
+        switch (mode) {
+            case "serial":
+                MyAsynTask.setDefaultExecutor(new SerialExecutor(MyAsynTask.getThreadPoolExecutor()));
+                break;
+            case "threadPool":
+                MyAsynTask.useThreadPoolExecutor();
+                break;
+            case "priority":
+                MyAsynTask.usePriorityExecutor();
+                break;
+            case "lifo":
+                MyAsynTask.useLifoExecutor();
+                break;
+            default:
+                throw new IllegalArgumentException("unknown mode " + mode);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void createTasks() throws InterruptedException {
+        mLatch = new CountDownLatch(BATCH_SIZE);
+        mTasks = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            mTasks.add(new EmptyTask(mLatch));
+        }
+        closeGate();
+    }
+
+    /**
+     * 占住线程池的所有核心线程，直到提交结束
+     */
+    private void closeGate() throws InterruptedException {
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) MyAsynTask.getThreadPoolExecutor();
+        int workers = pool.getCorePoolSize();
+        final CountDownLatch started = new CountDownLatch(workers);
+        final CountDownLatch gate = new CountDownLatch(1);
+        for (int i = 0; i < workers; i++) {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        gate.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+        }
+        started.await();
+        mGate = gate;
+    }
+
+    @TearDown(Level.Invocation)
+    public void awaitTasks() throws InterruptedException {
+        mGate.countDown();
+        mLatch.await();
+    }
+
+    private static final class EmptyTask extends MyAsynTask<Object, Object> {
+        private final CountDownLatch mLatch;
+
+        EmptyTask(CountDownLatch latch) {
+            mLatch = latch;
+        }
+
+        @Override
+        protected Object doInBackground(Object... params) {
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Object result) {
+            mLatch.countDown();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void executeEach() {
+        for (EmptyTask task : mTasks) {
+            task.execute();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void executeAll() {
+        MyAsynTask.executeAll(mTasks);
+    }
+}
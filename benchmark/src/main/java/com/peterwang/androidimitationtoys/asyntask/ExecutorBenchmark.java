@@ -0,0 +1,176 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MyAsynTask在各种执行方式下的基准测试：
+ * <ul>
+ * <li>submit：只统计execute本身的耗时（提交延迟），等待任务结束不计入</li>
+ * <li>endToEnd*：从execute到onPostExecute回调的吞吐量，分别用1个和4个提交线程</li>
+ * </ul>
+ * cpu和io两种模式用默认线程池提交，但任务声明了对应的TaskType，分别进入计算线程池和I/O线程池；
+ * keyed模式用executeOnKey按KEY_COUNT个key分组提交；virtualThread模式在JDK 21以下等同于threadPool。
+ * 加上-prof gc可以得到每个任务的分配字节数（gc.alloc.rate.norm）
+ *
+ * @author peter_wang
+ * @create-time 26/10/17 14:30
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExecutorBenchmark {
+    /**
+     * 每个提交线程每次调用提交的任务数，4个提交线程同时提交时也不会超过THREAD_BLOCKING_DEQUE的容量
+     */
+    private static final int BATCH_SIZE = 32;
+
+    /**
+     * keyed模式下的分组数，同一个key的任务串行执行
+     */
+    private static final int KEY_COUNT = 8;
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @State(Scope.Benchmark)
+    public static class ExecutorState {
+        @Param({"serial", "threadPool", "workStealing", "priority", "lifo", "cpu", "io", "keyed", "virtualThread"})
+        public String mode;
+
+        private MyAsynTask.TaskType mTaskType = MyAsynTask.TaskType.DEFAULT;
+        private boolean mKeyed;
+
+        @Setup
+        public void setUp() {
+            MyAsynTask.setResultExecutor(DIRECT_EXECUTOR);
+            switch (mode) {
+                case "serial":
+                    MyAsynTask.setDefaultExecutor(new SerialExecutor(MyAsynTask.getThreadPoolExecutor()));
+                    break;
+                case "threadPool":
+                    MyAsynTask.useThreadPoolExecutor();
+                    break;
+                case "workStealing":
+                    MyAsynTask.useWorkStealingExecutor();
+                    break;
+                case "priority":
+                    MyAsynTask.usePriorityExecutor();
+                    break;
+                case "lifo":
+                    MyAsynTask.useLifoExecutor();
+                    break;
+                case "cpu":
+                    MyAsynTask.useThreadPoolExecutor();
+                    mTaskType = MyAsynTask.TaskType.CPU;
+                    break;
+                case "io":
+                    MyAsynTask.useThreadPoolExecutor();
+                    mTaskType = MyAsynTask.TaskType.IO;
+                    break;
+                case "keyed":
+                    mKeyed = true;
+                    break;
+                case "virtualThread":
+                    MyAsynTask.useVirtualThreadExecutor();
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown mode " + mode);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ProducerState {
+        private CountDownLatch mLatch;
+
+        @Setup(Level.Invocation)
+        public void setUp() {
+            mLatch = new CountDownLatch(BATCH_SIZE);
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() throws InterruptedException {
+            mLatch.await();
+        }
+    }
+
+    private static final class EmptyTask extends MyAsynTask<Object, Object> {
+        private final CountDownLatch mLatch;
+
+        EmptyTask(CountDownLatch latch) {
+            mLatch = latch;
+        }
+
+        @Override
+        protected Object doInBackground(Object... params) {
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Object result) {
+            mLatch.countDown();
+        }
+    }
+
+    private static void submitBatch(ExecutorState executorState, CountDownLatch latch) {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            EmptyTask task = new EmptyTask(latch);
+            if (executorState.mKeyed) {
+                task.executeOnKey(i % KEY_COUNT);
+            } else {
+                task.setTaskType(executorState.mTaskType);
+                task.execute();
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void submit(ExecutorState executorState, ProducerState producerState) {
+        submitBatch(executorState, producerState.mLatch);
+    }
+
+    @Benchmark
+    @Threads(1)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void endToEnd1Producer(ExecutorState executorState, ProducerState producerState)
+            throws InterruptedException {
+        submitBatch(executorState, producerState.mLatch);
+        producerState.mLatch.await();
+    }
+
+    @Benchmark
+    @Threads(4)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void endToEnd4Producers(ExecutorState executorState, ProducerState producerState)
+            throws InterruptedException {
+        submitBatch(executorState, producerState.mLatch);
+        producerState.mLatch.await();
+    }
+}
@@ -0,0 +1,95 @@
+package com.peterwang.androidimitationtoys.asyntask;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比MyAsynTask.execute与LiteTask.execute每个任务的开销，两者都在THREAD_POOL_EXECUTOR中执行空任务，
+ * 结果回调都在工作线程中直接执行
+ *
+ * @author peter_wang
+ * @create-time 26/10/17 11:50
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LiteTaskBenchmark {
+    /**
+     * 每次调用提交的任务数，小于THREAD_BLOCKING_DEQUE的容量，避免触发过载策略
+     */
+    private static final int BATCH_SIZE = 100;
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private volatile CountDownLatch mLatch;
+    private LiteTask<Object> mLiteTask;
+
+    @Setup
+    public void setUp() {
+        MyAsynTask.useThreadPoolExecutor();
+        MyAsynTask.setResultExecutor(DIRECT_EXECUTOR);
+        mLiteTask = new LiteTask<Object>(new LiteTask.OnResultListener<Object>() {
+            @Override
+            public void onResult(Object result) {
+                mLatch.countDown();
+            }
+        }) {
+            @Override
+            protected Object doInBackground() {
+                return null;
+            }
+        };
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void myAsynTask() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            new MyAsynTask<Object, Object>() {
+                @Override
+                protected Object doInBackground(Object... params) {
+                    return null;
+                }
+
+                @Override
+                protected void onPostExecute(Object result) {
+                    latch.countDown();
+                }
+            }.execute();
+        }
+        latch.await();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void liteTask() throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(BATCH_SIZE);
+        mLatch = latch;
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            mLiteTask.execute();
+        }
+        latch.await();
+    }
+}